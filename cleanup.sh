@@ -15,3 +15,4 @@
 # limitations under the License.
 
 rm -rf prog-query
+rm -rf data/verdicts
@@ -0,0 +1,112 @@
+# Copyright 2015-2016 Stanford University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+#     http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+
+# Query harness for the Python interpreter (usage: python python_harness.py <timeout millis>).
+# Reads delta encoded queries on stdin, runs each one as a program in a forked copy of
+# this interpreter, and writes the length prefixed error output of the program to stdout.
+
+import os
+import signal
+import struct
+import sys
+import traceback
+
+def read_exact(stream, n):
+    data = b''
+    while len(data) < n:
+        chunk = stream.read(n - len(data))
+        if not chunk:
+            return None
+        data += chunk
+    return data
+
+def read_query(stream, previous):
+    # each query is sent as a delta against the previous one, which is rebuilt in place
+    header = read_exact(stream, 12)
+    if header is None:
+        return None
+    prefix, suffix, length = struct.unpack('>III', header)
+    middle = read_exact(stream, length)
+    if middle is None or prefix + suffix > len(previous):
+        return None
+    previous[prefix:len(previous) - suffix] = middle
+    return bytes(previous)
+
+def run(source, timeout):
+    if timeout > 0:
+        signal.setitimer(signal.ITIMER_REAL, timeout)
+    try:
+        code = compile(source, 'seed', 'exec')
+        exec(code, {'__name__': '__main__', '__file__': 'seed', '__builtins__': __builtins__})
+    except SystemExit as e:
+        if e.code is not None and e.code != 0:
+            if not isinstance(e.code, int):
+                sys.stderr.write(str(e.code) + '\n')
+            sys.stderr.flush()
+            os._exit(1)
+    except BaseException:
+        # omit the frame of this harness, as the interpreter would
+        etype, value, tb = sys.exc_info()
+        traceback.print_exception(etype, value, tb.tb_next)
+    sys.stderr.flush()
+    os._exit(0)
+
+def query(source, timeout):
+    r, w = os.pipe()
+    pid = os.fork()
+    if pid == 0:
+        os.close(r)
+        null = os.open(os.devnull, os.O_RDWR)
+        os.dup2(null, 0)
+        os.dup2(null, 1)
+        os.dup2(w, 2)
+        run(source, timeout)
+    os.close(w)
+    chunks = []
+    while True:
+        chunk = os.read(r, 65536)
+        if not chunk:
+            break
+        chunks.append(chunk)
+    os.close(r)
+    _, status = os.waitpid(pid, 0)
+    output = b''.join(chunks)
+    if os.WIFSIGNALED(status):
+        if os.WTERMSIG(status) == signal.SIGALRM:
+            output += b'Timeout!\n'
+        else:
+            output += ('Killed by signal %d\n' % os.WTERMSIG(status)).encode('ascii')
+    return output
+
+def main():
+    timeout = float(sys.argv[1]) / 1000.0 if len(sys.argv) > 1 else 0.0
+    requests = getattr(sys.stdin, 'buffer', sys.stdin)
+    # keep the protocol stream private, so that nothing else can write to it
+    responses = os.fdopen(os.dup(1), 'wb')
+    null = os.open(os.devnull, os.O_RDWR)
+    os.dup2(null, 1)
+    # tell the oracle that the harness is up and running
+    responses.write(struct.pack('>I', 5) + b'ready')
+    responses.flush()
+    previous = bytearray()
+    while True:
+        source = read_query(requests, previous)
+        if source is None:
+            break
+        output = query(source, timeout)
+        responses.write(struct.pack('>I', len(output)) + output)
+        responses.flush()
+
+if __name__ == '__main__':
+    main()
@@ -0,0 +1,71 @@
+# Copyright 2015-2016 Stanford University
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+#     http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+
+# Query harness for XML well-formedness (usage: python xml_harness.py <timeout millis>).
+# Reads delta encoded queries on stdin, parses each one with expat, and writes the
+# length prefixed parser error (empty if the document is well-formed) to stdout.
+
+import os
+import struct
+import sys
+from xml.parsers import expat
+
+def read_exact(stream, n):
+    data = b''
+    while len(data) < n:
+        chunk = stream.read(n - len(data))
+        if not chunk:
+            return None
+        data += chunk
+    return data
+
+def read_query(stream, previous):
+    # each query is sent as a delta against the previous one, which is rebuilt in place
+    header = read_exact(stream, 12)
+    if header is None:
+        return None
+    prefix, suffix, length = struct.unpack('>III', header)
+    middle = read_exact(stream, length)
+    if middle is None or prefix + suffix > len(previous):
+        return None
+    previous[prefix:len(previous) - suffix] = middle
+    return bytes(previous)
+
+def query(source):
+    parser = expat.ParserCreate()
+    try:
+        parser.Parse(source, True)
+    except expat.ExpatError as e:
+        return ('seed:%s\n' % e).encode('utf-8')
+    return b''
+
+def main():
+    requests = getattr(sys.stdin, 'buffer', sys.stdin)
+    responses = os.fdopen(os.dup(1), 'wb')
+    null = os.open(os.devnull, os.O_RDWR)
+    os.dup2(null, 1)
+    # tell the oracle that the harness is up and running
+    responses.write(struct.pack('>I', 5) + b'ready')
+    responses.flush()
+    previous = bytearray()
+    while True:
+        source = read_query(requests, previous)
+        if source is None:
+            break
+        output = query(source)
+        responses.write(struct.pack('>I', len(output)) + output)
+        responses.flush()
+
+if __name__ == '__main__':
+    main()
@@ -16,15 +16,43 @@ package glade.constants;
 
 import glade.main.ProgramDataUtils.FileParameters;
 
+import java.io.File;
+
 public class Files {
 	public static final String QUERY_PROG = "prog-query";
+	public static final String HARNESS_PATH = "harness";
 	
 	public static final String FILENAME = "seed";
 	public static final String AUX_FILENAME = "aux_seed";
 	public static final long TIMEOUT = 400;
 	
+	public static final String SCRATCH_PATH = new File("/dev/shm").isDirectory() ? "/dev/shm" : System.getProperty("java.io.tmpdir");
+	public static final int NUM_WORKERS = Runtime.getRuntime().availableProcessors();
+	public static final long HARNESS_STARTUP_TIMEOUT = 5000;
+	public static final int SPAWN_AHEAD_DEPTH = 0;
+	public static final boolean IS_TIMEOUT_ADAPTIVE = false;
+	
+	public static final long ORACLE_CACHE_BYTES = 64L << 20;
+	public static final int ORACLE_CACHE_STRIPES = 16;
+	
+	// the number of candidates checked at once during synthesis (1 disables speculation)
+	public static final int SPECULATION_WINDOW = 1;
+	// the number of threads synthesizing independent subtrees at once (1 disables forking)
+	public static final int NUM_SYNTHESIS_THREADS = 1;
+	// whether seeds are shrunk before synthesis (the shrunk seeds are kept next to the grammars)
+	public static final boolean IS_SEED_MINIMIZED = false;
+	// seeds longer than this are synthesized one top level unit at a time (-1 disables chunking)
+	public static final int CHUNK_LENGTH = -1;
+	// whether alternations are first split at token boundaries (false tries every split in order)
+	public static final boolean IS_SPLIT_TOKENIZED = false;
+	// whether repetitions occurring more than once in the seed are tried first (false tries them in order)
+	public static final boolean IS_REPETITION_RANKED = false;
+	// how often the synthesis of a seed is saved, so an interrupted run can resume (-1 disables checkpoints)
+	public static final long CHECKPOINT_INTERVAL = -1;
+	
 	public static final String EXAMPLE_TRAIN_PATH = "data/inputs-train";
 	public static final String GRAMMAR_PATH = "data/grammars";
+	public static final String VERDICT_PATH = "data/verdicts";
 	
-	public static final FileParameters FILE_PARAMETERS = new FileParameters(QUERY_PROG, FILENAME, AUX_FILENAME, TIMEOUT, EXAMPLE_TRAIN_PATH);
+	public static final FileParameters FILE_PARAMETERS = new FileParameters(QUERY_PROG, FILENAME, AUX_FILENAME, TIMEOUT, EXAMPLE_TRAIN_PATH, SCRATCH_PATH, NUM_WORKERS, SPAWN_AHEAD_DEPTH, IS_TIMEOUT_ADAPTIVE);
 }
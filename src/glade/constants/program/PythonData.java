@@ -15,12 +15,15 @@
 package glade.constants.program;
 
 import glade.constants.Files;
+import glade.main.ProgramDataUtils.HarnessProgramData;
 import glade.main.ProgramDataUtils.MultiFileProgramExamples;
 import glade.main.ProgramDataUtils.ProgramData;
 import glade.main.ProgramDataUtils.ProgramExamples;
 import glade.main.ProgramDataUtils.ShellProgramData;
 import glade.util.OracleUtils.IdentityWrapper;
 
+import java.io.File;
+
 public class PythonData {
 	public static final String PYTHON_EXE = "python/Python-2.7.10/python";
 	public static final boolean PYTHON_IS_ERROR = true;
@@ -31,5 +34,9 @@ public class PythonData {
 	public static final String PYTHON_NAME = "python";
 	public static final ProgramData PYTHON_DATA = new ShellProgramData(Files.FILE_PARAMETERS, PYTHON_EXE, PYTHON_IS_ERROR);
 	
+	public static final String PYTHON_HARNESS_NAME = "python-harness";
+	public static final String PYTHON_HARNESS = Files.HARNESS_PATH + File.separator + "python_harness.py";
+	public static final ProgramData PYTHON_HARNESS_DATA = new HarnessProgramData(Files.FILE_PARAMETERS, PYTHON_EXE, PYTHON_HARNESS);
+	
 	public static final ProgramExamples PYTHON_EXAMPLES = new MultiFileProgramExamples(Files.FILE_PARAMETERS, PYTHON_NAME, PYTHON_EXTENSION, PYTHON_EMPTY, new IdentityWrapper());
 }
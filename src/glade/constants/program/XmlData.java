@@ -15,12 +15,18 @@
 package glade.constants.program;
 
 import glade.constants.Files;
+import glade.main.ProgramDataUtils.HarnessProgramData;
+import glade.main.ProgramDataUtils.InProcessProgramData;
 import glade.main.ProgramDataUtils.MultiFileProgramExamples;
 import glade.main.ProgramDataUtils.ProgramData;
 import glade.main.ProgramDataUtils.ProgramExamples;
 import glade.main.ProgramDataUtils.ShellProgramData;
+import glade.util.CheckerUtils;
+import glade.util.CheckerUtils.XmlChecker;
 import glade.util.OracleUtils.IdentityWrapper;
 
+import java.io.File;
+
 public class XmlData {
 	public static final String XML_EXE = "xml/libxml2-2.9.2/xmllint";
 	public static final boolean XML_IS_ERROR = true;
@@ -30,6 +36,12 @@ public class XmlData {
 	
 	public static final String XML_NAME = "xml";
 	public static final ProgramData XML_DATA = new ShellProgramData(Files.FILE_PARAMETERS, XML_EXE, XML_IS_ERROR);
+	
+	public static final String XML_HARNESS_NAME = "xml-harness";
+	public static final String XML_HARNESS = Files.HARNESS_PATH + File.separator + "xml_harness.py";
+	public static final ProgramData XML_HARNESS_DATA = new HarnessProgramData(Files.FILE_PARAMETERS, PythonData.PYTHON_EXE, XML_HARNESS);
+	public static final String XML_JDK_NAME = "xml-jdk";
+	public static final ProgramData XML_JDK_DATA = new InProcessProgramData(Files.FILE_PARAMETERS, XmlChecker.class.getName(), CheckerUtils.getClasspath(XmlChecker.class));
 	public static final ProgramExamples XML_EXAMPLES = new MultiFileProgramExamples(Files.FILE_PARAMETERS, XML_NAME, XML_EXTENSION, XML_EMPTY, new IdentityWrapper());
 	
 	public static final String XML_EXAMPLE = "seed.xml";
@@ -25,6 +25,7 @@ import glade.grammar.GrammarUtils.NodeData;
 import glade.grammar.GrammarUtils.NodeMerges;
 import glade.grammar.GrammarUtils.RepetitionNode;
 import glade.util.Utils;
+import glade.util.Utils.TreeFold;
 
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
@@ -60,11 +61,11 @@ public class GrammarSerializer {
 	}
 	
 	public static void serialize(NodeData data, DataOutputStream dos) throws IOException {
-		serialize(data.example, dos);
-		serialize(data.context.pre, dos);
-		serialize(data.context.post, dos);
-		serialize(data.context.extraPre, dos);
-		serialize(data.context.extraPost, dos);
+		serialize(data.getExample(), dos);
+		serialize(data.context.getPre(), dos);
+		serialize(data.context.getPost(), dos);
+		serialize(data.context.getExtraPre(), dos);
+		serialize(data.context.getExtraPost(), dos);
 	}
 	
 	public static NodeData deserializeNodeData(DataInputStream dis) throws IOException {
@@ -213,32 +214,50 @@ public class GrammarSerializer {
 				this.nodes.add(null);
 			}
 		}
+		// the nodes are built children first, using a stack on the heap instead of recursion
 		private Node deserialize(int index) {
-			if(this.nodes.get(index) == null) {
-				NodeSerialization nodeSerialization = this.nodeSerializations.get(index);
-				if(nodeSerialization instanceof ConstantNodeSerialization) {
-					this.nodes.set(index, new ConstantNode(nodeSerialization.getData()));
-				} else if(nodeSerialization instanceof AlternationNodeSerialization) {
-					AlternationNodeSerialization altNodeSerialization = (AlternationNodeSerialization)nodeSerialization;
-					this.nodes.set(index, new AlternationNode(altNodeSerialization.getData(), this.deserialize(altNodeSerialization.first), this.deserialize(altNodeSerialization.second)));
-				} else if(nodeSerialization instanceof MultiAlternationNodeSerialization) {
-					MultiAlternationNodeSerialization maltNodeSerialization = (MultiAlternationNodeSerialization)nodeSerialization;
-					List<Node> children = new ArrayList<Node>();
-					for(int childIndex : maltNodeSerialization.children) {
-						children.add(this.deserialize(childIndex));
+			return new TreeFold<Integer,Node>() {
+				@Override
+				protected List<Integer> getChildren(Integer index) {
+					if(nodes.get(index) != null) {
+						return new ArrayList<Integer>();
+					}
+					NodeSerialization nodeSerialization = nodeSerializations.get(index);
+					if(nodeSerialization instanceof AlternationNodeSerialization) {
+						AlternationNodeSerialization altNodeSerialization = (AlternationNodeSerialization)nodeSerialization;
+						return Utils.getList(altNodeSerialization.first, altNodeSerialization.second);
+					} else if(nodeSerialization instanceof MultiAlternationNodeSerialization) {
+						return ((MultiAlternationNodeSerialization)nodeSerialization).children;
+					} else if(nodeSerialization instanceof RepetitionNodeSerialization) {
+						RepetitionNodeSerialization repNodeSerialization = (RepetitionNodeSerialization)nodeSerialization;
+						return Utils.getList(repNodeSerialization.start, repNodeSerialization.rep, repNodeSerialization.end);
+					} else {
+						return new ArrayList<Integer>();
 					}
-					this.nodes.set(index, new MultiAlternationNode(maltNodeSerialization.getData(), children));
-				} else if(nodeSerialization instanceof RepetitionNodeSerialization) {
-					RepetitionNodeSerialization repNodeSerialization = (RepetitionNodeSerialization)nodeSerialization;
-					this.nodes.set(index, new RepetitionNode(repNodeSerialization.getData(), this.deserialize(repNodeSerialization.start), this.deserialize(repNodeSerialization.rep), this.deserialize(repNodeSerialization.end)));
-				} else if(nodeSerialization instanceof MultiConstantNodeSerialization) {
-					MultiConstantNodeSerialization mconstNodeSerialization = (MultiConstantNodeSerialization)nodeSerialization;
-					return new MultiConstantNode(mconstNodeSerialization.getData(), mconstNodeSerialization.characterOptions, mconstNodeSerialization.characterChecks);
-				} else {
-					throw new RuntimeException("Unrecognized node type: " + nodeSerialization.getClass().getName());
 				}
-			}
-			return this.nodes.get(index);
+				
+				@Override
+				protected Node getValue(Integer index, List<Node> children) {
+					if(nodes.get(index) == null) {
+						NodeSerialization nodeSerialization = nodeSerializations.get(index);
+						if(nodeSerialization instanceof ConstantNodeSerialization) {
+							nodes.set(index, new ConstantNode(nodeSerialization.getData()));
+						} else if(nodeSerialization instanceof AlternationNodeSerialization) {
+							nodes.set(index, new AlternationNode(nodeSerialization.getData(), children.get(0), children.get(1)));
+						} else if(nodeSerialization instanceof MultiAlternationNodeSerialization) {
+							nodes.set(index, new MultiAlternationNode(nodeSerialization.getData(), children));
+						} else if(nodeSerialization instanceof RepetitionNodeSerialization) {
+							nodes.set(index, new RepetitionNode(nodeSerialization.getData(), children.get(0), children.get(1), children.get(2)));
+						} else if(nodeSerialization instanceof MultiConstantNodeSerialization) {
+							MultiConstantNodeSerialization mconstNodeSerialization = (MultiConstantNodeSerialization)nodeSerialization;
+							return new MultiConstantNode(mconstNodeSerialization.getData(), mconstNodeSerialization.characterOptions, mconstNodeSerialization.characterChecks);
+						} else {
+							throw new RuntimeException("Unrecognized node type: " + nodeSerialization.getClass().getName());
+						}
+					}
+					return nodes.get(index);
+				}
+			}.fold(index);
 		}
 		private List<Node> deserialize() {
 			for(int i=0; i<this.nodeSerializations.size(); i++) {
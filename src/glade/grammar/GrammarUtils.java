@@ -14,8 +14,11 @@
 
 package glade.grammar;
 
+import glade.util.OracleUtils.Query;
+import glade.util.OracleUtils.Segment;
 import glade.util.Utils.MultivalueMap;
 
+import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.LinkedHashSet;
 import java.util.List;
@@ -31,35 +34,184 @@ public class GrammarUtils {
 		}
 	}
 	
+	// A substring of a seed, kept as a range of the seed so that it is only copied when needed.
+	public static final class Span {
+		public static final Span EMPTY = new Span("");
+		
+		private final String source;
+		public final int offset;
+		public final int length;
+		public Span(String source, int offset, int length) {
+			this.source = source;
+			this.offset = offset;
+			this.length = length;
+		}
+		public Span(String string) {
+			this(string, 0, string.length());
+		}
+		public Span getSpan(int begin, int end) {
+			return new Span(this.source, this.offset + begin, end - begin);
+		}
+		private boolean isSame(Span other) {
+			return this.length == other.length && (this.length == 0 || (this.source == other.source && this.offset == other.offset));
+		}
+		private void appendTo(StringBuilder sb) {
+			sb.append(this.source, this.offset, this.offset + this.length);
+		}
+		public String toString() {
+			return this.source.substring(this.offset, this.offset + this.length);
+		}
+	}
+	
+	// A string made of spans, as a list linked from the span at one end. Spans are only ever
+	// added at that end, so the list is shared with the string it was added to, and a span
+	// adjacent to it in the same seed is merged into it. The length is the total number of
+	// characters in the spans, so the string is built without resizing.
+	private static final class Pieces {
+		private final Pieces next;
+		private final Span span;
+		private final int length;
+		private Pieces(Pieces next, Span span) {
+			this.next = next;
+			this.span = span;
+			this.length = span.length + (next == null ? 0 : next.length);
+		}
+		private static int getLength(Pieces pieces) {
+			return pieces == null ? 0 : pieces.length;
+		}
+		// adds the span after the pieces, which are linked from their last span
+		private static Pieces append(Pieces pieces, Span span) {
+			if(span.length == 0) {
+				return pieces;
+			}
+			if(pieces != null && pieces.span.source == span.source && pieces.span.offset + pieces.span.length == span.offset) {
+				return new Pieces(pieces.next, new Span(span.source, pieces.span.offset, pieces.span.length + span.length));
+			}
+			return new Pieces(pieces, span);
+		}
+		// adds the span before the pieces, which are linked from their first span
+		private static Pieces prepend(Span span, Pieces pieces) {
+			if(span.length == 0) {
+				return pieces;
+			}
+			if(pieces != null && pieces.span.source == span.source && span.offset + span.length == pieces.span.offset) {
+				return new Pieces(pieces.next, new Span(span.source, span.offset, span.length + pieces.span.length));
+			}
+			return new Pieces(pieces, span);
+		}
+		private static String toString(Pieces pieces, boolean isReversed) {
+			List<Span> spans = new ArrayList<Span>();
+			for(Pieces cur = pieces; cur != null; cur = cur.next) {
+				spans.add(cur.span);
+			}
+			StringBuilder sb = new StringBuilder(getLength(pieces));
+			for(int i=0; i<spans.size(); i++) {
+				spans.get(isReversed ? spans.size()-1-i : i).appendTo(sb);
+			}
+			return sb.toString();
+		}
+	}
+	
+	// The context of a node is the context of its parent, with spans added after its pre and
+	// before its post. Only the spans are kept; the strings are built when queried.
 	public static final class Context {
-		public final String pre;
-		public final String post;
-		public final String extraPre;
-		public final String extraPost;
+		private final Pieces pre;
+		private final Pieces post;
+		private final Pieces extraPre;
+		private final Pieces extraPost;
+		private final boolean isExtraUsed;
+		// the segments of the queries, built on demand and kept only while queries use them
+		private volatile WeakReference<Segment[]> segments = null;
 		public Context() {
-			this.pre = "";
-			this.post = "";
-			this.extraPre = "";
-			this.extraPost = "";
+			this.pre = null;
+			this.post = null;
+			this.extraPre = null;
+			this.extraPost = null;
+			this.isExtraUsed = false;
+		}
+		public Context(Context parent, Span pre, Span post, Span extraPre, Span extraPost) {
+			this.pre = Pieces.append(parent.pre, pre);
+			this.post = Pieces.prepend(post, parent.post);
+			// the extra strings share the pieces of the main ones while they are the same
+			this.extraPre = parent.extraPre == parent.pre && extraPre.isSame(pre) ? this.pre : Pieces.append(parent.extraPre, extraPre);
+			this.extraPost = parent.extraPost == parent.post && extraPost.isSame(post) ? this.post : Pieces.prepend(extraPost, parent.extraPost);
+			if(this.getPreLength() != this.getExtraPreLength() || this.getPostLength() != this.getExtraPostLength()) {
+				this.isExtraUsed = true;
+			} else if(this.pre == this.extraPre && this.post == this.extraPost) {
+				this.isExtraUsed = false;
+			} else {
+				this.isExtraUsed = !this.getPre().equals(this.getExtraPre()) || !this.getPost().equals(this.getExtraPost());
+			}
 		}
 		public Context(Context parent, String pre, String post, String extraPre, String extraPost) {
-			this.pre = parent.pre + pre;
-			this.post = post + parent.post;
-			this.extraPre = parent.extraPre + extraPre;
-			this.extraPost = extraPost + parent.extraPost;
+			this(parent, new Span(pre), new Span(post), new Span(extraPre), new Span(extraPost));
+		}
+		public String getPre() {
+			return Pieces.toString(this.pre, true);
+		}
+		public String getPost() {
+			return Pieces.toString(this.post, false);
+		}
+		public String getExtraPre() {
+			return Pieces.toString(this.extraPre, true);
+		}
+		public String getExtraPost() {
+			return Pieces.toString(this.extraPost, false);
+		}
+		public int getPreLength() {
+			return Pieces.getLength(this.pre);
+		}
+		public int getPostLength() {
+			return Pieces.getLength(this.post);
+		}
+		public int getExtraPreLength() {
+			return Pieces.getLength(this.extraPre);
+		}
+		public int getExtraPostLength() {
+			return Pieces.getLength(this.extraPost);
 		}
 		public boolean useExtra() {
-			return !this.pre.equals(this.extraPre) || !this.post.equals(this.extraPost);
+			return this.isExtraUsed;
+		}
+		private Segment[] getSegments() {
+			WeakReference<Segment[]> reference = this.segments;
+			Segment[] segments = reference == null ? null : reference.get();
+			if(segments == null) {
+				Segment preSegment = new Segment(this.getPre());
+				Segment postSegment = new Segment(this.getPost());
+				if(this.isExtraUsed) {
+					segments = new Segment[]{preSegment, postSegment, new Segment(this.getExtraPre()), new Segment(this.getExtraPost())};
+				} else {
+					segments = new Segment[]{preSegment, postSegment, preSegment, postSegment};
+				}
+				this.segments = new WeakReference<Segment[]>(segments);
+			}
+			return segments;
+		}
+		public Query getQuery(String example) {
+			Segment[] segments = this.getSegments();
+			return new Query(segments[0], new Segment(example), segments[1]);
+		}
+		public Query getExtraQuery(String example) {
+			Segment[] segments = this.getSegments();
+			return new Query(segments[2], new Segment(example), segments[3]);
 		}
 	}
 	
+	// the example of a node is a span of its seed (null for nodes without an example)
 	public static class NodeData {
-		public final String example;
+		public final Span span;
 		public final Context context;
-		public NodeData(String example, Context context) {
-			this.example = example;
+		public NodeData(Span span, Context context) {
+			this.span = span;
 			this.context = context;
 		}
+		public NodeData(String example, Context context) {
+			this(example == null ? null : new Span(example), context);
+		}
+		public String getExample() {
+			return this.span == null ? null : this.span.toString();
+		}
 	}
 	
 	public static interface Node {
@@ -79,7 +231,7 @@ public class GrammarUtils {
 			return this.data;
 		}
 		public String toString() {
-			return this.data.example;
+			return this.data.getExample();
 		}
 	}
 	
@@ -215,10 +367,17 @@ public class GrammarUtils {
 		}
 	}
 	
+	// the nodes of the tree in pre-order, using a stack on the heap instead of recursion
 	private static void getAllNodesHelper(Node root, List<Node> nodes) {
-		nodes.add(root);
-		for(Node child : root.getChildren()) {
-			getAllNodesHelper(child, nodes);
+		List<Node> stack = new ArrayList<Node>();
+		stack.add(root);
+		while(!stack.isEmpty()) {
+			Node node = stack.remove(stack.size()-1);
+			nodes.add(node);
+			List<Node> children = node.getChildren();
+			for(int i=children.size()-1; i>=0; i--) {
+				stack.add(children.get(i));
+			}
 		}
 	}
 	
@@ -228,16 +387,9 @@ public class GrammarUtils {
 		return nodes;
 	}
 	
-	private static void getDescendantsHelper(Node node, List<Node> descendants) {
-		descendants.add(node);
-		for(Node child : node.getChildren()) {
-			getDescendantsHelper(child, descendants);
-		}
-	}
-	
 	public static List<Node> getDescendants(Node node) {
 		List<Node> descendants = new ArrayList<Node>();
-		getDescendantsHelper(node, descendants);
+		getAllNodesHelper(node, descendants);
 		return descendants;
 	}
 }
@@ -19,6 +19,7 @@ import glade.grammar.GrammarUtils.MultiConstantNode;
 import glade.grammar.GrammarUtils.Node;
 import glade.grammar.GrammarUtils.RepetitionNode;
 import glade.util.Utils;
+import glade.util.Utils.TreeFold;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -181,80 +182,116 @@ public class ParseTreeUtils {
 		return parseTreeNodes;
 	}
 	
-	public static ParseTreeNode getParseTreeRepConst(Node node) {
-		if(node instanceof RepetitionNode) {
-			RepetitionNode repNode = (RepetitionNode)node;
-			ParseTreeNode start = getParseTreeRepConst(repNode.start);
-			ParseTreeNode end = getParseTreeRepConst(repNode.end);
-			if(repNode.rep instanceof MultiAlternationNode) {
-				return new ParseTreeRepetitionNode(repNode, start, getParseTreeAlt((MultiAlternationNode)repNode.rep), end);
+	// the children of a repetition are its start, the choices of its rep (or the rep), and its end
+	private static class ParseTreeFold extends TreeFold<Node,ParseTreeNode> {
+		@Override
+		protected List<Node> getChildren(Node node) {
+			if(node instanceof RepetitionNode) {
+				RepetitionNode repNode = (RepetitionNode)node;
+				List<Node> children = new ArrayList<Node>();
+				children.add(repNode.start);
+				if(repNode.rep instanceof MultiAlternationNode) {
+					children.addAll(repNode.rep.getChildren());
+				} else {
+					children.add(repNode.rep);
+				}
+				children.add(repNode.end);
+				return children;
+			} else if(node instanceof MultiConstantNode) {
+				return new ArrayList<Node>();
+			} else {
+				throw new RuntimeException("Invalid node type: " + node.getClass().getName());
+			}
+		}
+		
+		@Override
+		protected ParseTreeNode getValue(Node node, List<ParseTreeNode> children) {
+			if(node instanceof RepetitionNode) {
+				RepetitionNode repNode = (RepetitionNode)node;
+				ParseTreeNode start = children.get(0);
+				ParseTreeNode end = children.get(children.size()-1);
+				if(repNode.rep instanceof MultiAlternationNode) {
+					List<ParseTreeNode> rep = new ArrayList<ParseTreeNode>();
+					for(ParseTreeNode choice : children.subList(1, children.size()-1)) {
+						rep.add(new ParseTreeMultiAlternationNode((MultiAlternationNode)repNode.rep, choice));
+					}
+					return new ParseTreeRepetitionNode(repNode, start, rep, end);
+				} else {
+					return new ParseTreeRepetitionNode(repNode, start, Utils.getList(children.get(1)), end);
+				}
 			} else {
-				return new ParseTreeRepetitionNode(repNode, start, Utils.getList(getParseTreeRepConst(repNode.rep)), end);
+				return new ParseTreeMultiConstantNode((MultiConstantNode)node, node.getData().getExample());
 			}
-		} else if(node instanceof MultiConstantNode) {
-			return new ParseTreeMultiConstantNode((MultiConstantNode)node, node.getData().example);
-		} else {
-			throw new RuntimeException("Invalid node type: " + node.getClass().getName());
 		}
 	}
 	
-	public static ParseTreeNode getParseTree(Node node) {
-		return getParseTreeRepConst(node);
+	public static ParseTreeNode getParseTreeRepConst(Node node) {
+		return new ParseTreeFold().fold(node);
 	}
 	
-	private static void getDescendantsHelper(ParseTreeNode node, List<ParseTreeNode> descendants) {
-		descendants.add(node);
-		for(ParseTreeNode child : node.getChildren()) {
-			getDescendantsHelper(child, descendants);
-		}
+	public static ParseTreeNode getParseTree(Node node) {
+		return getParseTreeRepConst(node);
 	}
 	
+	// the descendants in pre-order, using a stack on the heap instead of recursion
 	public static List<ParseTreeNode> getDescendants(ParseTreeNode node) {
 		List<ParseTreeNode> descendants = new ArrayList<ParseTreeNode>();
-		getDescendantsHelper(node, descendants);
+		List<ParseTreeNode> stack = new ArrayList<ParseTreeNode>();
+		stack.add(node);
+		while(!stack.isEmpty()) {
+			ParseTreeNode cur = stack.remove(stack.size()-1);
+			descendants.add(cur);
+			List<ParseTreeNode> children = cur.getChildren();
+			for(int i=children.size()-1; i>=0; i--) {
+				stack.add(children.get(i));
+			}
+		}
 		return descendants;
 	}
 	
-	private static void getDescendantsByTypeHelper(ParseTreeNode node, List<ParseTreeNode>[] descendants) {
-		if(node instanceof ParseTreeMultiConstantNode) {
-			descendants[0].add(node);
-		} else {
-			descendants[1].add(node);
-		}
-		for(ParseTreeNode child : node.getChildren()) {
-			getDescendantsByTypeHelper(child, descendants);
-		}
-	}
-
 	public static List<ParseTreeNode>[] getDescendantsByType(ParseTreeNode node) {
 		@SuppressWarnings("unchecked")
 		List<ParseTreeNode>[] descendants = new List[2];
 		for(int i=0; i<2; i++) {
 			descendants[i] = new ArrayList<ParseTreeNode>();
 		}
-		getDescendantsByTypeHelper(node, descendants);
+		for(ParseTreeNode descendant : getDescendants(node)) {
+			if(descendant instanceof ParseTreeMultiConstantNode) {
+				descendants[0].add(descendant);
+			} else {
+				descendants[1].add(descendant);
+			}
+		}
 		return descendants;
 	}
 	
-	public static ParseTreeNode getSubstitute(ParseTreeNode node, ParseTreeNode cur, ParseTreeNode sub) {
-		if(node == cur) {
-			return sub;
-		} else if(node instanceof ParseTreeRepetitionNode) {
-			ParseTreeRepetitionNode repNode = (ParseTreeRepetitionNode)node;
-			ParseTreeNode newStart = getSubstitute(repNode.start, cur, sub);
-			List<ParseTreeNode> newRep = new ArrayList<ParseTreeNode>();
-			for(ParseTreeNode rep : repNode.rep) {
-				newRep.add(getSubstitute(rep, cur, sub));
+	public static ParseTreeNode getSubstitute(ParseTreeNode node, final ParseTreeNode cur, final ParseTreeNode sub) {
+		return new TreeFold<ParseTreeNode,ParseTreeNode>() {
+			@Override
+			protected List<ParseTreeNode> getChildren(ParseTreeNode node) {
+				if(node == cur) {
+					return new ArrayList<ParseTreeNode>();
+				} else if(node instanceof ParseTreeRepetitionNode || node instanceof ParseTreeMultiAlternationNode || node instanceof ParseTreeMultiConstantNode) {
+					return node.getChildren();
+				} else {
+					throw new RuntimeException("Unrecognized node type: " + node.getClass().getName());
+				}
 			}
-			ParseTreeNode newEnd = getSubstitute(repNode.end, cur, sub);
-			return new ParseTreeRepetitionNode(repNode.node, newStart, newRep, newEnd);
-		} else if(node instanceof ParseTreeMultiAlternationNode) {
-			ParseTreeNode newChoice = getSubstitute(((ParseTreeMultiAlternationNode)node).choice, cur, sub);
-			return new ParseTreeMultiAlternationNode(((ParseTreeMultiAlternationNode)node).node, newChoice);
-		} else if(node instanceof ParseTreeMultiConstantNode) {
-			return node;
-		} else {
-			throw new RuntimeException("Unrecognized node type: " + node.getClass().getName());
-		}
+			
+			@Override
+			protected ParseTreeNode getValue(ParseTreeNode node, List<ParseTreeNode> children) {
+				if(node == cur) {
+					return sub;
+				} else if(node instanceof ParseTreeRepetitionNode) {
+					ParseTreeRepetitionNode repNode = (ParseTreeRepetitionNode)node;
+					List<ParseTreeNode> newRep = new ArrayList<ParseTreeNode>(children.subList(1, children.size()-1));
+					return new ParseTreeRepetitionNode(repNode.node, children.get(0), newRep, children.get(children.size()-1));
+				} else if(node instanceof ParseTreeMultiAlternationNode) {
+					return new ParseTreeMultiAlternationNode(((ParseTreeMultiAlternationNode)node).node, children.get(0));
+				} else {
+					return node;
+				}
+			}
+		}.fold(node);
 	}
 }
@@ -23,25 +23,57 @@ import glade.grammar.GrammarUtils.Node;
 import glade.grammar.GrammarUtils.NodeData;
 import glade.grammar.GrammarUtils.NodeMerges;
 import glade.grammar.GrammarUtils.RepetitionNode;
+import glade.grammar.synthesize.RegexSynthesis.Worklist;
+import glade.grammar.synthesize.RegexSynthesis.Worklist.Checkpointer;
 import glade.util.Log;
+import glade.util.OracleUtils;
+import glade.util.OracleUtils.AsyncDiscriminativeOracle;
 import glade.util.OracleUtils.DiscriminativeOracle;
+import glade.util.OracleUtils.Query;
 import glade.util.Utils.Maybe;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 public class GrammarSynthesis {
-	private static Node getNode(String example, DiscriminativeOracle oracle) {
-		return GrammarTransformer.getTransform(RegexSynthesis.getNode(example, oracle), oracle);
+	private static Node getNode(String example, DiscriminativeOracle oracle, SynthesisSettings settings) {
+		return GrammarTransformer.getTransform(RegexSynthesis.getNode(example, oracle, settings), oracle, settings);
 	}
 	
 	public static Grammar getGrammarSingle(String example, DiscriminativeOracle oracle) {
+		return getGrammarSingle(example, oracle, new SynthesisSettings());
+	}
+	
+	public static Grammar getGrammarSingle(String example, DiscriminativeOracle oracle, SynthesisSettings settings) {
+		return getGrammarSingleFromSeed(getSeed(example, oracle, settings), oracle, settings);
+	}
+	
+	// the example that synthesis starts from, which is minimized first if the settings say so
+	public static String getSeed(String example, DiscriminativeOracle oracle, SynthesisSettings settings) {
+		return settings.isSeedMinimized ? SeedMinimization.getMinimized(example, oracle) : example;
+	}
+	
+	public static Grammar getGrammarSingleFromSeed(String example, DiscriminativeOracle oracle, SynthesisSettings settings) {
+		return getGrammarSingleFromWorklist(new Worklist(example, oracle, settings), oracle, settings, -1, null);
+	}
+	
+	// continues from the worklist (which may be resumed from a checkpoint), and passes it to the checkpointer (if any) every interval
+	public static Grammar getGrammarSingleFromWorklist(Worklist worklist, DiscriminativeOracle oracle, SynthesisSettings settings, long intervalMillis, Checkpointer checkpointer) {
 		long time = System.currentTimeMillis();
+		String example = worklist.getExample();
 		if(!oracle.query(example)) {
 			throw new RuntimeException("Invalid example: " + example);
 		}
 		Log.info("PROCESSING EXAMPLE:\n" + example);
-		Node node = getNode(example, oracle);
+		if(checkpointer == null) {
+			worklist.run();
+		} else {
+			worklist.run(intervalMillis, checkpointer);
+		}
+		Node node = GrammarTransformer.getTransform(worklist.getNode(), oracle, settings);
 		Log.info("SINGLE REGEX TIME: " + ((System.currentTimeMillis() - time)/1000.0) + " seconds");
 		time = System.currentTimeMillis();
 		Grammar grammar = new Grammar(node, MergesSynthesis.getMergesSingle(node, node, oracle));
@@ -51,37 +83,123 @@ public class GrammarSynthesis {
 	
 	public static Grammar getGrammarMultipleFromRoots(List<Node> roots, DiscriminativeOracle oracle) {
 		long time = System.currentTimeMillis();
-		Grammar grammar = new Grammar(new MultiAlternationNode(new NodeData(null, new Context()), roots), MergesSynthesis.getMergesMultiple(roots, oracle));
+		Grammar grammar = new Grammar(new MultiAlternationNode(new NodeData((String)null, new Context()), roots), MergesSynthesis.getMergesMultiple(roots, oracle));
 		Log.info("MULTIPLE MERGE TIME: " + ((System.currentTimeMillis() - time)/1000.0) + " seconds");
 		return grammar;
 	}
 	
 	public static Grammar getGrammarMultiple(List<String> examples, DiscriminativeOracle oracle) {
+		return getGrammarMultiple(examples, oracle, new SynthesisSettings());
+	}
+	
+	public static Grammar getGrammarMultiple(List<String> examples, DiscriminativeOracle oracle, SynthesisSettings settings) {
 		List<Node> roots = new ArrayList<Node>();
 		for(String example : examples) {
-			roots.add(getNode(example, oracle));
+			roots.add(getNode(getSeed(example, oracle, settings), oracle, settings));
 		}
 		return getGrammarMultipleFromRoots(roots, oracle);
 	}
 	
 	public static Grammar getRegularGrammarMultipleFromRoots(List<Node> roots, DiscriminativeOracle oracle) {
 		long time = System.currentTimeMillis();
-		Grammar grammar = new Grammar(new MultiAlternationNode(new NodeData(null, new Context()), roots), new NodeMerges());
+		Grammar grammar = new Grammar(new MultiAlternationNode(new NodeData((String)null, new Context()), roots), new NodeMerges());
 		Log.info("MULTIPLE MERGE TIME: " + ((System.currentTimeMillis() - time)/1000.0) + " seconds");
 		return grammar;
 	}
 	
 	public static Grammar getRegularGrammarMultiple(List<String> examples, DiscriminativeOracle oracle) {
+		return getRegularGrammarMultiple(examples, oracle, new SynthesisSettings());
+	}
+	
+	public static Grammar getRegularGrammarMultiple(List<String> examples, DiscriminativeOracle oracle, SynthesisSettings settings) {
 		List<Node> roots = new ArrayList<Node>();
 		for(String example : examples) {
-			roots.add(getNode(example, oracle));
+			roots.add(getNode(getSeed(example, oracle, settings), oracle, settings));
 		}
 		return getRegularGrammarMultipleFromRoots(roots, oracle);
 	}
 	
-	public static boolean getCheck(DiscriminativeOracle oracle, Context context, Iterable<String> examples) {
-		for(String example : examples) {
-			if(!oracle.query(context.pre + example + context.post) || (context.useExtra() && !oracle.query(context.extraPre + example + context.extraPost))) {
+	// the kinds of checks made during synthesis, each made from a list of check templates
+	public static enum CheckPhase {
+		ALTERNATION, REPETITION, CONSTANT, MERGE;
+	}
+	
+	// Learns how often each check template (by position in the list) of each phase fails.
+	// All checks of a candidate must pass, so running them in order of increasing cost per
+	// chance of failure rejects failing candidates with fewer queries, with the same outcome.
+	private static class CheckStatistics {
+		private static final int MAX_TEMPLATES = 16;
+		private final AtomicLongArray attempts = new AtomicLongArray(CheckPhase.values().length * MAX_TEMPLATES);
+		private final AtomicLongArray failures = new AtomicLongArray(CheckPhase.values().length * MAX_TEMPLATES);
+		
+		private static int getIndex(CheckPhase phase, int template) {
+			return phase.ordinal() * MAX_TEMPLATES + Math.min(template, MAX_TEMPLATES - 1);
+		}
+		
+		private void record(CheckPhase phase, int template, boolean isPassed) {
+			this.attempts.incrementAndGet(getIndex(phase, template));
+			if(!isPassed) {
+				this.failures.incrementAndGet(getIndex(phase, template));
+			}
+		}
+		
+		// the chance of failure is smoothed, so that unseen templates are not ruled out
+		private double getScore(CheckPhase phase, int template, long cost) {
+			int index = getIndex(phase, template);
+			return cost * (this.attempts.get(index) + 2.0) / (this.failures.get(index) + 1.0);
+		}
+	}
+	
+	private static final CheckStatistics statistics = new CheckStatistics();
+	
+	// the fixed cost of a query (such as starting the program), in characters of query length
+	private static final long QUERY_OVERHEAD = 1000;
+	
+	private static List<Integer> getOrder(CheckPhase phase, Context context, List<String> examples) {
+		final double[] scores = new double[examples.size()];
+		List<Integer> order = new ArrayList<Integer>();
+		for(int i=0; i<examples.size(); i++) {
+			long cost = context.getPreLength() + examples.get(i).length() + context.getPostLength() + QUERY_OVERHEAD;
+			if(context.useExtra()) {
+				cost += context.getExtraPreLength() + examples.get(i).length() + context.getExtraPostLength() + QUERY_OVERHEAD;
+			}
+			scores[i] = statistics.getScore(phase, i, cost);
+			order.add(i);
+		}
+		Collections.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer first, Integer second) {
+				int result = Double.compare(scores[first], scores[second]);
+				return result != 0 ? result : Integer.compare(first, second);
+			}
+		});
+		return order;
+	}
+	
+	// Like the check below, but runs the checks in the order learned for the phase. An async
+	// oracle runs the checks at once and cancels the rest after a rejection, so only its first
+	// check is run ahead of the others, and only that check (whose outcome is always known) is
+	// recorded, so that the cancelled checks do not bias the learned failure rates.
+	public static boolean getCheck(DiscriminativeOracle oracle, Context context, List<String> examples, CheckPhase phase) {
+		List<Integer> order = getOrder(phase, context, examples);
+		if(oracle instanceof AsyncDiscriminativeOracle && !order.isEmpty()) {
+			List<Query> queries = new ArrayList<Query>();
+			for(int i : order) {
+				queries.add(context.getQuery(examples.get(i)));
+				if(context.useExtra()) {
+					queries.add(context.getExtraQuery(examples.get(i)));
+				}
+			}
+			int numFirst = context.useExtra() ? 2 : 1;
+			boolean isPassed = OracleUtils.isAllAccepted((AsyncDiscriminativeOracle)oracle, queries.subList(0, numFirst));
+			statistics.record(phase, order.get(0), isPassed);
+			return isPassed && OracleUtils.isAllAccepted((AsyncDiscriminativeOracle)oracle, queries.subList(numFirst, queries.size()));
+		}
+		for(int i : order) {
+			String example = examples.get(i);
+			boolean isPassed = OracleUtils.query(oracle, context.getQuery(example)) && (!context.useExtra() || OracleUtils.query(oracle, context.getExtraQuery(example)));
+			statistics.record(phase, i, isPassed);
+			if(!isPassed) {
 				return false;
 			}
 		}
@@ -108,7 +226,7 @@ public class GrammarSynthesis {
 				if(!(repChild.end instanceof ConstantNode) && !(repChild.end instanceof MultiConstantNode)) {
 					return new Maybe<List<Node>>();
 				}
-				if(!repChild.start.getData().example.equals("") || !repChild.end.getData().example.equals("")) {
+				if(!repChild.start.getData().getExample().equals("") || !repChild.end.getData().getExample().equals("")) {
 					return new Maybe<List<Node>>();
 				}
 				constantChildren.add(repChild.rep);
@@ -14,6 +14,7 @@
 
 package glade.grammar.synthesize;
 
+import glade.grammar.GrammarUtils;
 import glade.grammar.GrammarUtils.AlternationNode;
 import glade.grammar.GrammarUtils.ConstantNode;
 import glade.grammar.GrammarUtils.Context;
@@ -21,22 +22,37 @@ import glade.grammar.GrammarUtils.MultiAlternationNode;
 import glade.grammar.GrammarUtils.MultiConstantNode;
 import glade.grammar.GrammarUtils.Node;
 import glade.grammar.GrammarUtils.RepetitionNode;
+import glade.grammar.GrammarUtils.Span;
+import glade.grammar.synthesize.GrammarSynthesis.CheckPhase;
 import glade.util.CharacterUtils;
 import glade.util.Log;
 import glade.util.CharacterUtils.CharacterGeneralization;
 import glade.util.OracleUtils.DiscriminativeOracle;
 import glade.util.Utils.Maybe;
 import glade.util.Utils.MultivalueMap;
+import glade.util.Utils.TreeFold;
 
 import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 public class GrammarTransformer {
 	public static Node getTransform(Node node, DiscriminativeOracle oracle) {
+		return getTransform(node, oracle, new SynthesisSettings());
+	}
+	
+	public static Node getTransform(Node node, DiscriminativeOracle oracle, SynthesisSettings settings) {
 		Node transformFlatten = getTransform(node, new FlattenTransformer());
-		return getTransform(transformFlatten, new ConstantTransformer(oracle, getMultiAlternationRepetitionConstantNodes(transformFlatten)));
+		ConstantTransformer transformer = new ConstantTransformer(oracle, getMultiAlternationRepetitionConstantNodes(transformFlatten));
+		transformer.prepare(transformFlatten, settings.getPool(oracle));
+		return getTransform(transformFlatten, transformer);
 	}
 	
 	private static interface NodeTransformer {
@@ -47,38 +63,39 @@ public class GrammarTransformer {
 		public abstract Node transformMultiAlternation(MultiAlternationNode node, List<Node> newChildren);
 	}
 	
-	private static Node getTransform(Node node, NodeTransformer transformer) {
-		if(node instanceof ConstantNode) {
-			return transformer.transformConstant((ConstantNode)node);
-		} else if(node instanceof MultiConstantNode) {
-			return transformer.transformMultiConstant((MultiConstantNode)node);
-		} else if(node instanceof AlternationNode) {
-			AlternationNode altNode = (AlternationNode)node;
-			Node newFirst = getTransform(altNode.first, transformer);
-			Node newSecond = getTransform(altNode.second, transformer);
-			return transformer.transformAlternation(altNode, newFirst, newSecond);
-		} else if(node instanceof MultiAlternationNode) {
-			List<Node> newChildren = new ArrayList<Node>();
-			for(Node child : node.getChildren()) {
-				newChildren.add(getTransform(child, transformer));
+	// transforms the children before their parent, using a stack on the heap instead of recursion
+	private static Node getTransform(Node root, final NodeTransformer transformer) {
+		return new TreeFold<Node,Node>() {
+			@Override
+			protected List<Node> getChildren(Node node) {
+				return node.getChildren();
 			}
-			return transformer.transformMultiAlternation((MultiAlternationNode)node, newChildren);
-		} else if(node instanceof RepetitionNode) {
-			RepetitionNode repNode = (RepetitionNode)node;
-			Node newStart = getTransform(repNode.start, transformer);
-			Node newRep = getTransform(repNode.rep, transformer);
-			Node newEnd = getTransform(repNode.end, transformer);
-			return transformer.transformRepetition(repNode, newStart, newRep, newEnd);
-		} else {
-			throw new RuntimeException("Invalid node type: " + node.getClass().getName());
-		}
+			
+			@Override
+			protected Node getValue(Node node, List<Node> newChildren) {
+				if(node instanceof ConstantNode) {
+					return transformer.transformConstant((ConstantNode)node);
+				} else if(node instanceof MultiConstantNode) {
+					return transformer.transformMultiConstant((MultiConstantNode)node);
+				} else if(node instanceof AlternationNode) {
+					return transformer.transformAlternation((AlternationNode)node, newChildren.get(0), newChildren.get(1));
+				} else if(node instanceof MultiAlternationNode) {
+					return transformer.transformMultiAlternation((MultiAlternationNode)node, newChildren);
+				} else if(node instanceof RepetitionNode) {
+					return transformer.transformRepetition((RepetitionNode)node, newChildren.get(0), newChildren.get(1), newChildren.get(2));
+				} else {
+					throw new RuntimeException("Invalid node type: " + node.getClass().getName());
+				}
+			}
+		}.fold(root);
 	}
 	
 	private static MultiConstantNode generalizeConstant(ConstantNode node, DiscriminativeOracle oracle) {
-		String example = node.getData().example;
+		Span span = node.getData().span;
+		String example = span.toString();
 		Context context = node.getData().context;
 		if(example.length() != 0) {
-			Log.info("GENERALIZING CONST: " + example + " ## " + context.pre + " ## " + context.post);
+			Log.info("GENERALIZING CONST: " + example + " ## " + context.getPre() + " ## " + context.getPost());
 		}
 		List<List<Character>> characterOptions = new ArrayList<List<Character>>();
 		List<List<Character>> characterChecks = new ArrayList<List<Character>>();
@@ -86,7 +103,7 @@ public class GrammarTransformer {
 			List<Character> characterOption = new ArrayList<Character>();
 			List<Character> characterCheck = new ArrayList<Character>();
 			char curC = example.charAt(i);
-			Context curContext = new Context(context, example.substring(0, i), example.substring(i+1), example.substring(0, i), example.substring(i+1));
+			Context curContext = new Context(context, span.getSpan(0, i), span.getSpan(i+1, span.length), span.getSpan(0, i), span.getSpan(i+1, span.length));
 			characterOption.add(curC);
 			characterCheck.add(curC);
 			for(CharacterGeneralization generalization : CharacterUtils.getGeneralizations()) {
@@ -97,7 +114,7 @@ public class GrammarTransformer {
 							checks.add("" + c);
 						}
 					}
-					if(GrammarSynthesis.getCheck(oracle, curContext, checks)) {
+					if(GrammarSynthesis.getCheck(oracle, curContext, checks, CheckPhase.CONSTANT)) {
 						for(char c : generalization.characters) {
 							if(curC != c) {
 								characterOption.add(c);
@@ -140,9 +157,9 @@ public class GrammarTransformer {
 	
 	private static MultiAlternationNode generalizeMultiAlternationConstant(MultiAlternationNode node, MultivalueMap<MultiAlternationNode,ConstantNode> multiAlternationNodeConstantChildren, DiscriminativeOracle oracle) {
 		List<MultiConstantNode> curConsts = new ArrayList<MultiConstantNode>();
-		Log.info("GENERALIZING MULTI ALT: " + node.getData().example);
+		Log.info("GENERALIZING MULTI ALT: " + node.getData().getExample());
 		for(Node child : multiAlternationNodeConstantChildren.get(node)) {
-			if(!isContained(child.getData().example, curConsts)) {
+			if(!isContained(child.getData().getExample(), curConsts)) {
 				curConsts.add(generalizeConstant((ConstantNode)child, oracle));
 			}
 		}
@@ -153,6 +170,7 @@ public class GrammarTransformer {
 		private final DiscriminativeOracle oracle;
 		private final MultivalueMap<MultiAlternationNode,ConstantNode> multiAlternationNodeConstantChildren;
 		private final Set<ConstantNode> ignoredConstants = new HashSet<ConstantNode>();;
+		private final Map<Node,Node> generalizations = new IdentityHashMap<Node,Node>();
 		private ConstantTransformer(DiscriminativeOracle oracle, MultivalueMap<MultiAlternationNode,ConstantNode> multiAlternationNodeConstantChildren) {
 			this.oracle = oracle;
 			this.multiAlternationNodeConstantChildren = multiAlternationNodeConstantChildren;
@@ -160,7 +178,54 @@ public class GrammarTransformer {
 				this.ignoredConstants.addAll(multiAlternationNodeConstantChildren.get(maltNode));
 			}
 		}
+		
+		private boolean isGeneralized(Node node) {
+			return (node instanceof ConstantNode && !this.ignoredConstants.contains(node)) || (node instanceof MultiAlternationNode && this.multiAlternationNodeConstantChildren.containsKey(node));
+		}
+		
+		private Node getGeneralization(Node node) {
+			return node instanceof ConstantNode ? generalizeConstant((ConstantNode)node, this.oracle) : generalizeMultiAlternationConstant((MultiAlternationNode)node, this.multiAlternationNodeConstantChildren, this.oracle);
+		}
+		
+		// The generalizations do not depend on the transforms of the children, so given a pool
+		// they are all computed up front, at the same time.
+		private void prepare(Node root, ExecutorService pool) {
+			if(pool == null) {
+				return;
+			}
+			List<Node> nodes = new ArrayList<Node>();
+			List<Future<Node>> futures = new ArrayList<Future<Node>>();
+			try {
+				for(final Node node : GrammarUtils.getAllNodes(root)) {
+					if(this.isGeneralized(node)) {
+						nodes.add(node);
+						futures.add(pool.submit(new Callable<Node>() {
+							@Override
+							public Node call() {
+								return getGeneralization(node);
+							}
+						}));
+					}
+				}
+				for(int i=0; i<nodes.size(); i++) {
+					this.generalizations.put(nodes.get(i), futures.get(i).get());
+				}
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException("Interrupted while generalizing constants!", e);
+			} catch(ExecutionException e) {
+				throw new RuntimeException("Error generalizing constants!", e.getCause());
+			} finally {
+				for(Future<Node> future : futures) {
+					future.cancel(true);
+				}
+			}
+		}
+		
 		public Node transformConstant(ConstantNode node) {
+			if(this.generalizations.containsKey(node)) {
+				return this.generalizations.get(node);
+			}
 			return this.ignoredConstants.contains(node) ? node : generalizeConstant(node, this.oracle);
 		}
 		public Node transformMultiConstant(MultiConstantNode node) {
@@ -170,6 +235,9 @@ public class GrammarTransformer {
 			return new AlternationNode(node.getData(), newFirst, newSecond);
 		}
 		public Node transformMultiAlternation(MultiAlternationNode node, List<Node> newChildren) {
+			if(this.generalizations.containsKey(node)) {
+				return this.generalizations.get(node);
+			}
 			return this.multiAlternationNodeConstantChildren.containsKey(node) ? generalizeMultiAlternationConstant(node, this.multiAlternationNodeConstantChildren, this.oracle) : new MultiAlternationNode(node.getData(), newChildren);
 		}
 		public Node transformRepetition(RepetitionNode node, Node newStart, Node newRep, Node newEnd) {
@@ -206,27 +274,33 @@ public class GrammarTransformer {
 		}
 	}
 	
-	private static void getMultiAlternationRepetitionConstantNodesHelper(Node node, MultivalueMap<MultiAlternationNode,ConstantNode> result, boolean isParentRep) {
-		Maybe<List<Node>> constantChildren = GrammarSynthesis.getMultiAlternationRepetitionConstantChildren(node, isParentRep);
-		if(constantChildren.hasT()) {
-			for(Node child : constantChildren.getT()) {
-				result.add((MultiAlternationNode)node, (ConstantNode)child);
+	// visits the nodes in pre-order, using a stack on the heap instead of recursion
+	private static void getMultiAlternationRepetitionConstantNodesHelper(Node root, MultivalueMap<MultiAlternationNode,ConstantNode> result) {
+		List<Node> stack = new ArrayList<Node>();
+		List<Boolean> isParentRepStack = new ArrayList<Boolean>();
+		stack.add(root);
+		isParentRepStack.add(false);
+		while(!stack.isEmpty()) {
+			Node node = stack.remove(stack.size()-1);
+			boolean isParentRep = isParentRepStack.remove(isParentRepStack.size()-1);
+			Maybe<List<Node>> constantChildren = GrammarSynthesis.getMultiAlternationRepetitionConstantChildren(node, isParentRep);
+			if(constantChildren.hasT()) {
+				for(Node child : constantChildren.getT()) {
+					result.add((MultiAlternationNode)node, (ConstantNode)child);
+				}
+				continue;
 			}
-		} else if(node instanceof RepetitionNode) {
-			RepetitionNode repNode = (RepetitionNode)node;
-			getMultiAlternationRepetitionConstantNodesHelper(repNode.start, result, false);
-			getMultiAlternationRepetitionConstantNodesHelper(repNode.rep, result, true);
-			getMultiAlternationRepetitionConstantNodesHelper(repNode.end, result, false);
-		} else {
-			for(Node child : node.getChildren()) {
-				getMultiAlternationRepetitionConstantNodesHelper(child, result, false);
+			List<Node> children = node.getChildren();
+			for(int i=children.size()-1; i>=0; i--) {
+				stack.add(children.get(i));
+				isParentRepStack.add(node instanceof RepetitionNode && i == 1);
 			}
 		}
 	}
 	
 	private static MultivalueMap<MultiAlternationNode,ConstantNode> getMultiAlternationRepetitionConstantNodes(Node root) {
 		MultivalueMap<MultiAlternationNode,ConstantNode> result = new MultivalueMap<MultiAlternationNode,ConstantNode>();
-		getMultiAlternationRepetitionConstantNodesHelper(root, result, false);
+		getMultiAlternationRepetitionConstantNodesHelper(root, result);
 		return result;
 	}
 }
@@ -22,9 +22,11 @@ import glade.grammar.GrammarUtils.MultiConstantNode;
 import glade.grammar.GrammarUtils.Node;
 import glade.grammar.GrammarUtils.NodeMerges;
 import glade.grammar.GrammarUtils.RepetitionNode;
+import glade.grammar.synthesize.GrammarSynthesis.CheckPhase;
 import glade.util.Log;
 import glade.util.OracleUtils.DiscriminativeOracle;
 import glade.util.Utils.MultivalueMap;
+import glade.util.Utils.TreeFold;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -80,9 +82,9 @@ public class MergesSynthesis {
 		}
 		List<String> firstExamplesSimple = new ArrayList<String>();
 		List<String> secondExamplesSimple = new ArrayList<String>();
-		firstExamplesSimple.add(secondRep.getData().example + secondRep.getData().example);
-		secondExamplesSimple.add(firstRep.getData().example + firstRep.getData().example);
-		if(!GrammarSynthesis.getCheck(oracle, firstRep.getData().context, firstExamplesSimple) || !GrammarSynthesis.getCheck(oracle, secondRep.getData().context, secondExamplesSimple)) {
+		firstExamplesSimple.add(secondRep.getData().getExample() + secondRep.getData().getExample());
+		secondExamplesSimple.add(firstRep.getData().getExample() + firstRep.getData().getExample());
+		if(!GrammarSynthesis.getCheck(oracle, firstRep.getData().context, firstExamplesSimple, CheckPhase.MERGE) || !GrammarSynthesis.getCheck(oracle, secondRep.getData().context, secondExamplesSimple, CheckPhase.MERGE)) {
 			return;
 		}
 		List<String> firstExamples = new ArrayList<String>();
@@ -94,31 +96,29 @@ public class MergesSynthesis {
 			secondExamples.add(example + example);
 		}
 		if((isStructuredExample(firstRep) && isStructuredExample(secondRep))
-				|| (GrammarSynthesis.getCheck(oracle, firstRep.getData().context, firstExamples) && GrammarSynthesis.getCheck(oracle, secondRep.getData().context, secondExamples))) {
-			Log.info("MERGE NODE FIRST:\n" + firstRep.getData().context.pre + " ## " + firstRep.getData().example + " ## " + firstRep.getData().context.post);
-			Log.info("MERGE NODE SECOND:\n" + secondRep.getData().context.pre + " ## " + secondRep.getData().example + " ## " + secondRep.getData().context.post);
+				|| (GrammarSynthesis.getCheck(oracle, firstRep.getData().context, firstExamples, CheckPhase.MERGE) && GrammarSynthesis.getCheck(oracle, secondRep.getData().context, secondExamples, CheckPhase.MERGE))) {
+			Log.info("MERGE NODE FIRST:\n" + firstRep.getData().context.getPre() + " ## " + firstRep.getData().getExample() + " ## " + firstRep.getData().context.getPost());
+			Log.info("MERGE NODE SECOND:\n" + secondRep.getData().context.getPre() + " ## " + secondRep.getData().getExample() + " ## " + secondRep.getData().context.getPost());
 			merges.add(firstRep, secondRep);
 		}
 	}
 	
+	// the examples of a node are built from the examples of its children, which are added first
 	private static void getAllExamplesHelper(Node node, MultivalueMap<Node,String> examples) {
-		for(Node child : node.getChildren()) {
-			getAllExamplesHelper(child, examples);
-		}
 		if(node instanceof RepetitionNode) {
 			RepetitionNode repNode = (RepetitionNode)node;
 			for(String example : examples.get(repNode.start)) {
-				examples.add(repNode, example + repNode.rep.getData().example + repNode.end.getData().example);
+				examples.add(repNode, example + repNode.rep.getData().getExample() + repNode.end.getData().getExample());
 			}
 			for(String example : examples.get(repNode.rep)) {
-				examples.add(repNode, repNode.start.getData().example + example + repNode.end.getData().example);
+				examples.add(repNode, repNode.start.getData().getExample() + example + repNode.end.getData().getExample());
 			}
 			for(String example : examples.get(repNode.end)) {
-				examples.add(repNode, repNode.start.getData().example + repNode.rep.getData().example + example);
+				examples.add(repNode, repNode.start.getData().getExample() + repNode.rep.getData().getExample() + example);
 			}
 		} else if(node instanceof MultiConstantNode) {
 			MultiConstantNode mconstNode = (MultiConstantNode)node;
-			String example = mconstNode.getData().example;
+			String example = mconstNode.getData().getExample();
 			for(int i=0; i<mconstNode.characterChecks.size(); i++) {
 				String pre = example.substring(0, i);
 				String post = example.substring(i+1);
@@ -136,7 +136,7 @@ public class MergesSynthesis {
 			}
 		} else if(node instanceof ConstantNode) {
 			ConstantNode constNode = (ConstantNode)node;
-			examples.add(constNode, constNode.getData().example);
+			examples.add(constNode, constNode.getData().getExample());
 		} else if(node instanceof MultiAlternationNode) {
 			MultiAlternationNode maltNode = (MultiAlternationNode)node;
 			for(Node child : maltNode.getChildren()) {
@@ -150,8 +150,19 @@ public class MergesSynthesis {
 	}
 	
 	private static MultivalueMap<Node,String> getAllExamples(Node root) {
-		MultivalueMap<Node,String> allExamples = new MultivalueMap<Node,String>();
-		getAllExamplesHelper(root, allExamples);
+		final MultivalueMap<Node,String> allExamples = new MultivalueMap<Node,String>();
+		new TreeFold<Node,Void>() {
+			@Override
+			protected List<Node> getChildren(Node node) {
+				return node.getChildren();
+			}
+			
+			@Override
+			protected Void getValue(Node node, List<Void> children) {
+				getAllExamplesHelper(node, allExamples);
+				return null;
+			}
+		}.fold(root);
 		return allExamples;
 	}
 
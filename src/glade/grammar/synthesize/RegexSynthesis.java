@@ -14,22 +14,54 @@
 
 package glade.grammar.synthesize;
 
+import glade.grammar.GrammarSerializer;
 import glade.grammar.GrammarUtils.AlternationNode;
 import glade.grammar.GrammarUtils.ConstantNode;
 import glade.grammar.GrammarUtils.Context;
 import glade.grammar.GrammarUtils.Node;
 import glade.grammar.GrammarUtils.NodeData;
 import glade.grammar.GrammarUtils.RepetitionNode;
+import glade.grammar.GrammarUtils.Span;
+import glade.grammar.synthesize.GrammarSynthesis.CheckPhase;
+import glade.util.CharacterUtils.Tokenizer;
 import glade.util.Log;
+import glade.util.OracleUtils;
+import glade.util.OracleUtils.AsyncDiscriminativeOracle;
 import glade.util.OracleUtils.DiscriminativeOracle;
 import glade.util.Utils.Maybe;
+import glade.util.Utils.SuffixArray;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
 public class RegexSynthesis {
 	public static Node getNode(String example, DiscriminativeOracle oracle) {
-		return getNode(new NodeData(example, new Context()), oracle, new NodeType[]{NodeType.REPETITION, NodeType.ALTERNATION}, true);
+		return getNode(example, oracle, new SynthesisSettings());
+	}
+	
+	public static Node getNode(String example, DiscriminativeOracle oracle, SynthesisSettings settings) {
+		Worklist worklist = new Worklist(example, oracle, settings);
+		worklist.run();
+		return worklist.getNode();
 	}
 	
 	private static List<String> getAlternationChecks(String first, String second) {
@@ -52,107 +84,628 @@ public class RegexSynthesis {
 		return checks;
 	}
 	
-	private static class AlternationPartialNode {
-		private final NodeData first;
-		private final NodeData second;
-		private AlternationPartialNode(NodeData first, NodeData second) {
-			this.first = first;
-			this.second = second;
+	// the candidates of a search, in the order in which they are tried
+	private static abstract class Candidates implements Iterator<int[]> {
+		public abstract List<String> getChecks(int[] candidate);
+		
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
 		}
 	}
 	
-	private static class RepetitionPartialNode {
-		private final NodeData start;
-		private final NodeData rep;
-		private final NodeData end;
-		private RepetitionPartialNode(NodeData start, NodeData rep, NodeData end) {
-			this.start = start;
-			this.rep = rep;
-			this.end = end;
+	// The split points i of the example into first = example[0,i) and second = example[i,n), in
+	// increasing order. Given a tokenizer, its split points are tried first, and then the rest.
+	private static class AlternationCandidates extends Candidates {
+		private final String example;
+		private final List<Integer> splits = new ArrayList<Integer>();
+		private final boolean[] isTried;
+		private int j = 0;
+		private int i = 1;
+		private AlternationCandidates(String example, Tokenizer tokenizer) {
+			this.example = example;
+			this.isTried = new boolean[example.length()];
+			if(tokenizer != null) {
+				for(int split : tokenizer.getSplits(example)) {
+					if(split >= 1 && split <= example.length()-1 && !this.isTried[split]) {
+						this.splits.add(split);
+						this.isTried[split] = true;
+					}
+				}
+			}
+			this.skip();
 		}
-	}
-	
-	private static Maybe<AlternationPartialNode> getAlternationPartialNode(NodeData cur, DiscriminativeOracle oracle) {
-		for(int i=1; i<=cur.example.length()-1; i++) {
-			String first = cur.example.substring(0, i);
-			String second = cur.example.substring(i);
-			if(GrammarSynthesis.getCheck(oracle, cur.context, getAlternationChecks(first, second))) {
-				NodeData firstData = new NodeData(first, new Context(cur.context, "", second, "", ""));
-				NodeData secondData = new NodeData(second, new Context(cur.context, first, "", "", ""));
-				Log.info("FOUND ALT: " + first + " ## " + second);
-				return new Maybe<AlternationPartialNode>(new AlternationPartialNode(firstData, secondData));
+		
+		private AlternationCandidates(String example) {
+			this(example, null);
+		}
+		
+		private void skip() {
+			while(this.i <= this.example.length()-1 && this.isTried[this.i]) {
+				this.i++;
 			}
 		}
-		return new Maybe<AlternationPartialNode>();
+		
+		@Override
+		public boolean hasNext() {
+			return this.j < this.splits.size() || this.i <= this.example.length()-1;
+		}
+		
+		@Override
+		public int[] next() {
+			if(!this.hasNext()) {
+				throw new NoSuchElementException();
+			}
+			if(this.j < this.splits.size()) {
+				return new int[]{this.splits.get(this.j++)};
+			}
+			int[] candidate = new int[]{this.i++};
+			this.skip();
+			return candidate;
+		}
+		
+		@Override
+		public List<String> getChecks(int[] candidate) {
+			return getAlternationChecks(this.example.substring(0, candidate[0]), this.example.substring(candidate[0]));
+		}
 	}
 	
-	private static Maybe<RepetitionPartialNode> getRepetitionPartialNode(NodeData cur, DiscriminativeOracle oracle, boolean isWholeStringRepeatable) {
-		for(int init=0; init<=cur.example.length()-1; init++) {
-			for(int len=cur.example.length()-init; len>=1; len--) {
-				if(len == cur.example.length() && !isWholeStringRepeatable) {
-					continue;
+	// The pairs (init, len) where rep = example[init,init+len), by increasing init then decreasing
+	// len. Given the suffix array of the example, this order is walked in phases: first the reps
+	// directly followed by a copy of themselves, then the other reps occurring more than once,
+	// and then the rest.
+	private static class RepetitionCandidates extends Candidates {
+		private static final int TANDEM = 0;
+		private static final int REPEATED = 1;
+		private static final int OTHER = 2;
+		
+		private final String example;
+		private final boolean isWholeStringRepeatable;
+		private final SuffixArray suffixes;
+		private int phase;
+		private int init = 0;
+		private int len;
+		private RepetitionCandidates(String example, boolean isWholeStringRepeatable, SuffixArray suffixes) {
+			this.example = example;
+			this.isWholeStringRepeatable = isWholeStringRepeatable;
+			this.suffixes = suffixes;
+			this.phase = suffixes == null ? OTHER : TANDEM;
+			this.len = example.length();
+			this.skip();
+		}
+		
+		private RepetitionCandidates(String example, boolean isWholeStringRepeatable) {
+			this(example, isWholeStringRepeatable, null);
+		}
+		
+		private int getPhase(int init, int len) {
+			if(this.suffixes == null || len > this.suffixes.getMaxRepeatLength(init)) {
+				return OTHER;
+			}
+			return init+2*len <= this.example.length() && this.suffixes.getLcp(init, init+len) >= len ? TANDEM : REPEATED;
+		}
+		
+		private void skip() {
+			while(true) {
+				if(this.len == 0) {
+					this.init++;
+					this.len = this.example.length()-this.init;
 				}
-				String start = cur.example.substring(0, init);
-				String rep = cur.example.substring(init, init+len);
-				String end = cur.example.substring(init+len);
-				if(GrammarSynthesis.getCheck(oracle, cur.context, getRepetitionChecks(start, rep, end))) {
-					NodeData startData = new NodeData(start, new Context(cur.context, "", rep+end, "", end));
-					NodeData repData = new NodeData(rep, new Context(cur.context, start, end, start, end));
-					NodeData endData = new NodeData(end, new Context(cur.context, start+rep, "", start, ""));
-					Log.info("FOUND REP: " + rep + " ## " + start + " ## " + end);
-					return new Maybe<RepetitionPartialNode>(new RepetitionPartialNode(startData, repData, endData));
+				if(this.init > this.example.length()-1) {
+					if(this.phase == OTHER) {
+						return;
+					}
+					this.phase++;
+					this.init = 0;
+					this.len = this.example.length();
+				} else if((this.len == this.example.length() && !this.isWholeStringRepeatable) || this.getPhase(this.init, this.len) != this.phase) {
+					this.len--;
+				} else {
+					return;
 				}
 			}
 		}
-		return new Maybe<RepetitionPartialNode>();
+		
+		@Override
+		public boolean hasNext() {
+			return this.init <= this.example.length()-1;
+		}
+		
+		@Override
+		public int[] next() {
+			if(!this.hasNext()) {
+				throw new NoSuchElementException();
+			}
+			int[] candidate = new int[]{this.init, this.len};
+			this.len--;
+			this.skip();
+			return candidate;
+		}
+		
+		@Override
+		public List<String> getChecks(int[] candidate) {
+			int init = candidate[0];
+			int len = candidate[1];
+			return getRepetitionChecks(this.example.substring(0, init), this.example.substring(init, init+len), this.example.substring(init+len));
+		}
 	}
 	
-	private static Maybe<Node> getConstantNode(NodeData cur, DiscriminativeOracle oracle) {
-		return new Maybe<Node>(new ConstantNode(cur));
+	// the given candidates, in order, with the checks of the given search
+	private static class ChunkCandidates extends Candidates {
+		private final Candidates search;
+		private final List<int[]> candidates;
+		private int i = 0;
+		private ChunkCandidates(Candidates search, List<int[]> candidates) {
+			this.search = search;
+			this.candidates = candidates;
+		}
+		
+		@Override
+		public boolean hasNext() {
+			return this.i < this.candidates.size();
+		}
+		
+		@Override
+		public int[] next() {
+			if(!this.hasNext()) {
+				throw new NoSuchElementException();
+			}
+			return this.candidates.get(this.i++);
+		}
+		
+		@Override
+		public List<String> getChecks(int[] candidate) {
+			return this.search.getChecks(candidate);
+		}
 	}
 	
-	private static Maybe<Node> getAlternationNode(NodeData cur, DiscriminativeOracle oracle) {
-		Maybe<AlternationPartialNode> maybe = getAlternationPartialNode(cur, oracle);
-		if(!maybe.hasT()) {
-			return new Maybe<Node>();
+	// the ends of the lines at which the brackets are balanced, which split the example into its
+	// top level units (null if there is only one unit)
+	private static int[] getUnits(String example) {
+		List<Integer> units = new ArrayList<Integer>();
+		int depth = 0;
+		for(int i=0; i<example.length()-1; i++) {
+			char c = example.charAt(i);
+			if(c == '(' || c == '[' || c == '{') {
+				depth++;
+			} else if(c == ')' || c == ']' || c == '}') {
+				depth = Math.max(depth-1, 0);
+			} else if(c == '\n' && depth == 0) {
+				units.add(i+1);
+			}
+		}
+		if(units.isEmpty()) {
+			return null;
+		}
+		int[] result = new int[units.size()];
+		for(int i=0; i<result.length; i++) {
+			result[i] = units.get(i);
 		}
-		Node first = getNode(maybe.getT().first, oracle, new NodeType[]{NodeType.REPETITION}, true);
-		Node second = getNode(maybe.getT().second, oracle, new NodeType[]{NodeType.ALTERNATION, NodeType.REPETITION}, true);
-		return new Maybe<Node>(new AlternationNode(cur, first, second));
+		return result;
 	}
 	
-	private static Maybe<Node> getRepetitionNode(NodeData cur, DiscriminativeOracle oracle, boolean isWholeStringRepeatable) {
-		Maybe<RepetitionPartialNode> maybe = getRepetitionPartialNode(cur, oracle, isWholeStringRepeatable);
-		if(!maybe.hasT()) {
-			return new Maybe<Node>();
+	private static final ExecutorService speculator = Executors.newCachedThreadPool(OracleUtils.getDaemonThreadFactory("glade-speculate"));
+	
+	// Returns the first candidate (in order) whose checks all pass. When speculating, the checks
+	// of the next few candidates run at the same time, but a candidate is only taken once every
+	// earlier candidate has failed, and the checks still running are then cancelled.
+	private static Maybe<int[]> getFirstCandidate(final DiscriminativeOracle oracle, final Context context, Candidates candidates, final CheckPhase phase, SynthesisSettings settings) {
+		if(settings.speculationWindow <= 1 || !(oracle instanceof AsyncDiscriminativeOracle)) {
+			while(candidates.hasNext()) {
+				int[] candidate = candidates.next();
+				if(GrammarSynthesis.getCheck(oracle, context, candidates.getChecks(candidate), phase)) {
+					return new Maybe<int[]>(candidate);
+				}
+			}
+			return new Maybe<int[]>();
+		}
+		LinkedList<int[]> window = new LinkedList<int[]>();
+		LinkedList<Future<Boolean>> futures = new LinkedList<Future<Boolean>>();
+		try {
+			while(true) {
+				while(futures.size() < settings.speculationWindow && candidates.hasNext()) {
+					int[] candidate = candidates.next();
+					final List<String> checks = candidates.getChecks(candidate);
+					window.add(candidate);
+					futures.add(speculator.submit(new Callable<Boolean>() {
+						@Override
+						public Boolean call() {
+							return GrammarSynthesis.getCheck(oracle, context, checks, phase);
+						}
+					}));
+				}
+				if(futures.isEmpty()) {
+					return new Maybe<int[]>();
+				}
+				int[] candidate = window.removeFirst();
+				if(futures.removeFirst().get()) {
+					return new Maybe<int[]>(candidate);
+				}
+			}
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while checking candidates!", e);
+		} catch(ExecutionException e) {
+			throw new RuntimeException("Error checking candidates!", e.getCause());
+		} finally {
+			for(Future<Boolean> future : futures) {
+				future.cancel(true);
+			}
 		}
-		Node start = getNode(maybe.getT().start, oracle, new NodeType[]{}, true);
-		Node rep = getNode(maybe.getT().rep, oracle, new NodeType[]{NodeType.ALTERNATION, NodeType.REPETITION}, false);
-		Node end = getNode(maybe.getT().end, oracle, new NodeType[]{NodeType.REPETITION}, true);
-		return new Maybe<Node>(new RepetitionNode(cur, start, rep, end));
 	}
 	
 	private static enum NodeType {
 		REPETITION, ALTERNATION;
 	}
 	
-	private static Node getNode(NodeData cur, DiscriminativeOracle oracle, NodeType[] types, boolean isWholeStringRepeatable) {
-		for(NodeType type : types) {
+	// the node type chosen for a subproblem (null for a constant), and the candidate it was split at
+	private static class Decision {
+		private final NodeType type;
+		private final int[] split;
+		private Decision(NodeType type, int[] split) {
+			this.type = type;
+			this.split = split;
+		}
+	}
+	
+	// A subproblem of the synthesis: the node for the data, trying the node types in order before
+	// falling back to a constant. Once decided, the split gives the subproblems of the children,
+	// which have their own data and context and so are independent of each other. In chunked
+	// synthesis, the units are the split points between the top level units of the data.
+	private static class Subproblem {
+		private final NodeData cur;
+		private final NodeType[] types;
+		private final boolean isWholeStringRepeatable;
+		private final int[] units;
+		private Decision decision = null;
+		private final List<Subproblem> children = new ArrayList<Subproblem>();
+		private Node node = null;
+		private Subproblem(NodeData cur, NodeType[] types, boolean isWholeStringRepeatable, int[] units) {
+			this.cur = cur;
+			this.types = types;
+			this.isWholeStringRepeatable = isWholeStringRepeatable;
+			this.units = units;
+		}
+		
+		private Subproblem(NodeData cur, NodeType[] types, boolean isWholeStringRepeatable) {
+			this(cur, types, isWholeStringRepeatable, null);
+		}
+	}
+	
+	// Only tries the whole data as a repetition, and the splits between units as alternations, so
+	// each unit is synthesized on its own with the rest of the example as its context. Returns
+	// null if none of them pass, in which case the data is searched as usual.
+	private static Decision getChunkedDecision(Subproblem subproblem, DiscriminativeOracle oracle, SynthesisSettings settings) {
+		NodeData cur = subproblem.cur;
+		for(NodeType type : subproblem.types) {
+			List<int[]> candidates = new ArrayList<int[]>();
 			switch(type) {
 			case REPETITION:
-				Maybe<Node> nodeRep = getRepetitionNode(cur, oracle, isWholeStringRepeatable);
-				if(nodeRep.hasT()) {
-					return nodeRep.getT();
+				if(subproblem.isWholeStringRepeatable) {
+					candidates.add(new int[]{0, cur.span.length});
+				}
+				Maybe<int[]> repetition = getFirstCandidate(oracle, cur.context, new ChunkCandidates(new RepetitionCandidates(cur.getExample(), true), candidates), CheckPhase.REPETITION, settings);
+				if(repetition.hasT()) {
+					return new Decision(NodeType.REPETITION, repetition.getT());
 				}
 				break;
 			case ALTERNATION:
-				Maybe<Node> nodeAlt = getAlternationNode(cur, oracle);
-				if(nodeAlt.hasT()) {
-					return nodeAlt.getT();
+				for(int unit : subproblem.units) {
+					candidates.add(new int[]{unit});
+				}
+				Maybe<int[]> alternation = getFirstCandidate(oracle, cur.context, new ChunkCandidates(new AlternationCandidates(cur.getExample()), candidates), CheckPhase.ALTERNATION, settings);
+				if(alternation.hasT()) {
+					return new Decision(NodeType.ALTERNATION, alternation.getT());
+				}
+				break;
+			}
+		}
+		return null;
+	}
+	
+	private static Decision getDecision(Subproblem subproblem, DiscriminativeOracle oracle, SynthesisSettings settings) {
+		NodeData cur = subproblem.cur;
+		if(subproblem.units != null) {
+			Decision decision = getChunkedDecision(subproblem, oracle, settings);
+			if(decision != null) {
+				return decision;
+			}
+		}
+		for(NodeType type : subproblem.types) {
+			switch(type) {
+			case REPETITION:
+				Maybe<int[]> repetition = getFirstCandidate(oracle, cur.context, new RepetitionCandidates(cur.getExample(), subproblem.isWholeStringRepeatable, settings.isRepetitionRanked ? new SuffixArray(cur.getExample()) : null), CheckPhase.REPETITION, settings);
+				if(repetition.hasT()) {
+					return new Decision(NodeType.REPETITION, repetition.getT());
 				}
 				break;
+			case ALTERNATION:
+				Maybe<int[]> alternation = getFirstCandidate(oracle, cur.context, new AlternationCandidates(cur.getExample(), settings.tokenizer), CheckPhase.ALTERNATION, settings);
+				if(alternation.hasT()) {
+					return new Decision(NodeType.ALTERNATION, alternation.getT());
+				}
+				break;
+			}
+		}
+		return new Decision(null, new int[]{});
+	}
+	
+	// whether the decision passes its checks in the context of the subproblem; a constant always
+	// does, since it never generalizes
+	private static boolean isChecked(Subproblem subproblem, Decision decision, DiscriminativeOracle oracle) {
+		String example = subproblem.cur.getExample();
+		if(decision.type == NodeType.REPETITION) {
+			int init = decision.split[0];
+			int len = decision.split[1];
+			return GrammarSynthesis.getCheck(oracle, subproblem.cur.context, getRepetitionChecks(example.substring(0, init), example.substring(init, init+len), example.substring(init+len)), CheckPhase.REPETITION);
+		} else if(decision.type == NodeType.ALTERNATION) {
+			int i = decision.split[0];
+			return GrammarSynthesis.getCheck(oracle, subproblem.cur.context, getAlternationChecks(example.substring(0, i), example.substring(i)), CheckPhase.ALTERNATION);
+		} else {
+			return true;
+		}
+	}
+	
+	// the units after the split at i, if i is itself between units
+	private static int[] getUnitsAfter(int[] units, int i) {
+		if(units == null || Arrays.binarySearch(units, i) < 0) {
+			return null;
+		}
+		int[] unitsAfter = new int[units.length-Arrays.binarySearch(units, i)-1];
+		for(int j=0; j<unitsAfter.length; j++) {
+			unitsAfter[j] = units[units.length-unitsAfter.length+j]-i;
+		}
+		return unitsAfter.length == 0 ? null : unitsAfter;
+	}
+	
+	private static List<Subproblem> getChildren(Subproblem subproblem, Decision decision, boolean isLogged) {
+		NodeData cur = subproblem.cur;
+		List<Subproblem> children = new ArrayList<Subproblem>();
+		if(decision.type == NodeType.REPETITION) {
+			int init = decision.split[0];
+			int len = decision.split[1];
+			Span start = cur.span.getSpan(0, init);
+			Span rep = cur.span.getSpan(init, init+len);
+			Span end = cur.span.getSpan(init+len, cur.span.length);
+			if(isLogged) {
+				Log.info("FOUND REP: " + rep + " ## " + start + " ## " + end);
+			}
+			children.add(new Subproblem(new NodeData(start, new Context(cur.context, Span.EMPTY, cur.span.getSpan(init, cur.span.length), Span.EMPTY, end)), new NodeType[]{}, true));
+			children.add(new Subproblem(new NodeData(rep, new Context(cur.context, start, end, start, end)), new NodeType[]{NodeType.ALTERNATION, NodeType.REPETITION}, false, init == 0 && len == cur.span.length ? subproblem.units : null));
+			children.add(new Subproblem(new NodeData(end, new Context(cur.context, cur.span.getSpan(0, init+len), Span.EMPTY, start, Span.EMPTY)), new NodeType[]{NodeType.REPETITION}, true));
+		} else if(decision.type == NodeType.ALTERNATION) {
+			int i = decision.split[0];
+			Span first = cur.span.getSpan(0, i);
+			Span second = cur.span.getSpan(i, cur.span.length);
+			if(isLogged) {
+				Log.info("FOUND ALT: " + first + " ## " + second);
+			}
+			children.add(new Subproblem(new NodeData(first, new Context(cur.context, Span.EMPTY, second, Span.EMPTY, Span.EMPTY)), new NodeType[]{NodeType.REPETITION}, true));
+			children.add(new Subproblem(new NodeData(second, new Context(cur.context, first, Span.EMPTY, Span.EMPTY, Span.EMPTY)), new NodeType[]{NodeType.ALTERNATION, NodeType.REPETITION}, true, getUnitsAfter(subproblem.units, i)));
+		}
+		return children;
+	}
+	
+	private static Node getNode(Subproblem subproblem) {
+		Decision decision = subproblem.decision;
+		List<Subproblem> children = subproblem.children;
+		if(decision.type == NodeType.REPETITION) {
+			return new RepetitionNode(subproblem.cur, children.get(0).node, children.get(1).node, children.get(2).node);
+		} else if(decision.type == NodeType.ALTERNATION) {
+			return new AlternationNode(subproblem.cur, children.get(0).node, children.get(1).node);
+		} else {
+			return new ConstantNode(subproblem.cur);
+		}
+	}
+	
+	// Synthesizes the regular expression for an example from a worklist of subproblems instead of
+	// by recursion, so the length of the example is limited by the heap rather than the stack.
+	// The synthesis can be paused between steps (or by interrupting a run), checkpointed, and
+	// resumed from the pending subproblems. An example longer than the chunk length of the
+	// settings is synthesized in chunks, where subproblems with the same data share decisions.
+	public static class Worklist {
+		private static final int PENDING = -1;
+		
+		// saves the worklist while it runs, so the synthesis can be resumed if it is stopped
+		public static interface Checkpointer {
+			public abstract void checkpoint(Worklist worklist);
+		}
+		
+		private final DiscriminativeOracle oracle;
+		private final SynthesisSettings settings;
+		private final ConcurrentMap<List<Object>,Future<Decision>> shared;
+		private final Subproblem root;
+		// parents are added before their children
+		private final List<Subproblem> subproblems = new ArrayList<Subproblem>();
+		// in pre-order, which is the order of the recursive synthesis
+		private final LinkedList<Subproblem> pending = new LinkedList<Subproblem>();
+		
+		public Worklist(String example, DiscriminativeOracle oracle, SynthesisSettings settings) {
+			this.oracle = oracle;
+			this.settings = settings;
+			boolean isChunked = settings.chunkLength != -1 && example.length() > settings.chunkLength;
+			this.shared = isChunked ? new ConcurrentHashMap<List<Object>,Future<Decision>>() : null;
+			this.root = new Subproblem(new NodeData(example, new Context()), new NodeType[]{NodeType.REPETITION, NodeType.ALTERNATION}, true, isChunked ? getUnits(example) : null);
+			this.subproblems.add(this.root);
+			this.pending.add(this.root);
+		}
+		
+		public String getExample() {
+			return this.root.cur.getExample();
+		}
+		
+		public boolean isDone() {
+			return this.pending.isEmpty();
+		}
+		
+		public int getNumPending() {
+			return this.pending.size();
+		}
+		
+		// Subproblems with the same data are decided once, and the others wait for that decision.
+		// The decision was checked in the context of the subproblem that made it, so the others
+		// check it again in their own context, and search as usual if it fails there.
+		private Decision decide(final Subproblem subproblem) {
+			if(this.shared == null || subproblem.units != null) {
+				return getDecision(subproblem, this.oracle, this.settings);
+			}
+			List<Object> key = Arrays.<Object>asList(subproblem.cur.getExample(), Arrays.asList(subproblem.types), subproblem.isWholeStringRepeatable);
+			FutureTask<Decision> task = new FutureTask<Decision>(new Callable<Decision>() {
+				@Override
+				public Decision call() {
+					return getDecision(subproblem, oracle, settings);
+				}
+			});
+			Future<Decision> decision = this.shared.putIfAbsent(key, task);
+			if(decision == null) {
+				decision = task;
+				task.run();
+			}
+			try {
+				if(decision == task || isChecked(subproblem, decision.get(), this.oracle)) {
+					return decision.get();
+				}
+				return getDecision(subproblem, this.oracle, this.settings);
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException("Interrupted while synthesizing!", e);
+			} catch(ExecutionException e) {
+				// a decision that was interrupted is made again by the next subproblem
+				this.shared.remove(key, decision);
+				throw new RuntimeException("Error synthesizing!", e.getCause());
+			}
+		}
+		
+		private List<Subproblem> apply(Subproblem subproblem, Decision decision, boolean isLogged) {
+			subproblem.decision = decision;
+			subproblem.children.addAll(getChildren(subproblem, decision, isLogged));
+			this.subproblems.addAll(subproblem.children);
+			return subproblem.children;
+		}
+		
+		// decides the next pending subproblem
+		public void step() {
+			Subproblem subproblem = this.pending.getFirst();
+			Decision decision = this.decide(subproblem);
+			this.pending.removeFirst();
+			this.pending.addAll(0, this.apply(subproblem, decision, true));
+		}
+		
+		public void run() {
+			this.run(-1);
+		}
+		
+		// decides all pending subproblems, saving the worklist every interval and when the run fails
+		public void run(long intervalMillis, Checkpointer checkpointer) {
+			while(!this.isDone()) {
+				try {
+					this.run(intervalMillis);
+				} finally {
+					checkpointer.checkpoint(this);
+				}
+			}
+		}
+		
+		// Decides pending subproblems, and stops once maxMillis (-1 for no limit) have passed and
+		// the subproblems being decided are done. Given a pool, independent subproblems are decided
+		// at the same time; if the run is interrupted, the subproblems being decided are pending again.
+		public void run(long maxMillis) {
+			long end = maxMillis == -1 ? Long.MAX_VALUE : System.currentTimeMillis() + maxMillis;
+			ExecutorService pool = this.settings.getPool(this.oracle);
+			if(pool == null) {
+				while(!this.isDone() && System.currentTimeMillis() < end) {
+					this.step();
+				}
+				return;
+			}
+			CompletionService<Decision> completion = new ExecutorCompletionService<Decision>(pool);
+			Map<Future<Decision>,Subproblem> running = new HashMap<Future<Decision>,Subproblem>();
+			try {
+				while(!running.isEmpty() || (!this.pending.isEmpty() && System.currentTimeMillis() < end)) {
+					while(!this.pending.isEmpty() && System.currentTimeMillis() < end) {
+						final Subproblem subproblem = this.pending.removeFirst();
+						running.put(completion.submit(new Callable<Decision>() {
+							@Override
+							public Decision call() {
+								return decide(subproblem);
+							}
+						}), subproblem);
+					}
+					Future<Decision> future = completion.take();
+					Decision decision = future.get();
+					this.pending.addAll(0, this.apply(running.remove(future), decision, true));
+				}
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException("Interrupted while synthesizing!", e);
+			} catch(ExecutionException e) {
+				throw new RuntimeException("Error synthesizing!", e.getCause());
+			} finally {
+				for(Map.Entry<Future<Decision>,Subproblem> entry : running.entrySet()) {
+					entry.getKey().cancel(true);
+					this.pending.add(entry.getValue());
+				}
+			}
+		}
+		
+		// builds the nodes children first, once every subproblem is decided
+		public Node getNode() {
+			if(!this.isDone()) {
+				throw new RuntimeException("Synthesis not done!");
+			}
+			for(int i=this.subproblems.size()-1; i>=0; i--) {
+				Subproblem subproblem = this.subproblems.get(i);
+				subproblem.node = RegexSynthesis.getNode(subproblem);
+			}
+			return this.root.node;
+		}
+		
+		// writes the example and the decisions in pre-order, where pending subproblems are undecided
+		public void checkpoint(DataOutputStream dos) throws IOException {
+			GrammarSerializer.serialize(this.root.cur.getExample(), dos);
+			List<Subproblem> stack = new ArrayList<Subproblem>();
+			stack.add(this.root);
+			while(!stack.isEmpty()) {
+				Subproblem subproblem = stack.remove(stack.size()-1);
+				Decision decision = subproblem.decision;
+				if(decision == null) {
+					dos.writeInt(PENDING);
+					continue;
+				}
+				dos.writeInt(decision.type == null ? NodeType.values().length : decision.type.ordinal());
+				dos.writeInt(decision.split.length);
+				for(int position : decision.split) {
+					dos.writeInt(position);
+				}
+				for(int i=subproblem.children.size()-1; i>=0; i--) {
+					stack.add(subproblem.children.get(i));
+				}
+			}
+		}
+		
+		// replays the decisions of a checkpoint without queries, and continues from its pending subproblems
+		public static Worklist resume(DataInputStream dis, DiscriminativeOracle oracle, SynthesisSettings settings) throws IOException {
+			Worklist worklist = new Worklist(GrammarSerializer.deserializeString(dis), oracle, settings);
+			worklist.pending.clear();
+			List<Subproblem> stack = new ArrayList<Subproblem>();
+			stack.add(worklist.root);
+			while(!stack.isEmpty()) {
+				Subproblem subproblem = stack.remove(stack.size()-1);
+				int type = dis.readInt();
+				if(type == PENDING) {
+					worklist.pending.add(subproblem);
+					continue;
+				}
+				int[] split = new int[dis.readInt()];
+				for(int i=0; i<split.length; i++) {
+					split[i] = dis.readInt();
+				}
+				List<Subproblem> children = worklist.apply(subproblem, new Decision(type == NodeType.values().length ? null : NodeType.values()[type], split), false);
+				for(int i=children.size()-1; i>=0; i--) {
+					stack.add(children.get(i));
+				}
 			}
+			return worklist;
 		}
-		return getConstantNode(cur, oracle).getT();
 	}
 }
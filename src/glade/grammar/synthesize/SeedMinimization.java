@@ -0,0 +1,122 @@
+// Copyright 2015-2016 Stanford University
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package glade.grammar.synthesize;
+
+import glade.util.CharacterUtils;
+import glade.util.Log;
+import glade.util.OracleUtils.DiscriminativeOracle;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Shrinks a seed before synthesis, by removing chunks of it for as long as the oracle still
+// accepts it (delta debugging). The chunks are lines, then tokens, then characters.
+public class SeedMinimization {
+	public static enum ChunkLevel {
+		LINE, TOKEN, CHARACTER;
+	}
+	
+	private static boolean isChunkEnd(String example, int index, ChunkLevel level) {
+		if(index == example.length() - 1) {
+			return true;
+		}
+		switch(level) {
+		case LINE:
+			return example.charAt(index) == '\n';
+		case TOKEN:
+			return CharacterUtils.isTokenBoundary(example.charAt(index), example.charAt(index+1));
+		case CHARACTER:
+			return true;
+		default:
+			throw new RuntimeException("Unrecognized chunk level: " + level);
+		}
+	}
+	
+	public static List<String> getChunks(String example, ChunkLevel level) {
+		List<String> chunks = new ArrayList<String>();
+		int begin = 0;
+		for(int i=0; i<example.length(); i++) {
+			if(isChunkEnd(example, i, level)) {
+				chunks.add(example.substring(begin, i+1));
+				begin = i+1;
+			}
+		}
+		return chunks;
+	}
+	
+	private static String getString(List<String> chunks, int begin, int end, boolean isComplement) {
+		StringBuilder sb = new StringBuilder();
+		for(int i=0; i<chunks.size(); i++) {
+			if((i >= begin && i < end) != isComplement) {
+				sb.append(chunks.get(i));
+			}
+		}
+		return sb.toString();
+	}
+	
+	// Removes chunks of the given level for as long as the oracle accepts the rest. The
+	// result is never empty, and no single chunk of it can be removed.
+	public static String getMinimized(String example, DiscriminativeOracle oracle, ChunkLevel level) {
+		List<String> chunks = getChunks(example, level);
+		int n = 2;
+		while(chunks.size() >= 2) {
+			int size = Math.min(n, chunks.size());
+			List<String> next = null;
+			int nextN = 0;
+			// first try to keep a single subset
+			for(int i=0; i<size && next == null; i++) {
+				String cur = getString(chunks, i*chunks.size()/size, (i+1)*chunks.size()/size, false);
+				if(!cur.isEmpty() && oracle.query(cur)) {
+					next = chunks.subList(i*chunks.size()/size, (i+1)*chunks.size()/size);
+					nextN = 2;
+				}
+			}
+			// then try to remove a single subset
+			for(int i=0; i<size && next == null && size > 2; i++) {
+				int begin = i*chunks.size()/size;
+				int end = (i+1)*chunks.size()/size;
+				String cur = getString(chunks, begin, end, true);
+				if(!cur.isEmpty() && oracle.query(cur)) {
+					next = new ArrayList<String>(chunks.subList(0, begin));
+					next.addAll(chunks.subList(end, chunks.size()));
+					nextN = Math.max(size-1, 2);
+				}
+			}
+			if(next != null) {
+				chunks = new ArrayList<String>(next);
+				n = nextN;
+			} else if(size < chunks.size()) {
+				n = Math.min(2*size, chunks.size());
+			} else {
+				break;
+			}
+		}
+		return getString(chunks, 0, chunks.size(), false);
+	}
+	
+	public static String getMinimized(String example, DiscriminativeOracle oracle) {
+		long time = System.currentTimeMillis();
+		if(!oracle.query(example)) {
+			throw new RuntimeException("Invalid example: " + example);
+		}
+		String minimized = example;
+		for(ChunkLevel level : ChunkLevel.values()) {
+			minimized = getMinimized(minimized, oracle, level);
+		}
+		Log.info("MINIMIZED EXAMPLE: " + example.length() + " -> " + minimized.length() + " characters");
+		Log.info("SEED MINIMIZATION TIME: " + ((System.currentTimeMillis() - time)/1000.0) + " seconds");
+		return minimized;
+	}
+}
@@ -0,0 +1,92 @@
+// Copyright 2015-2016 Stanford University
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package glade.grammar.synthesize;
+
+import glade.util.CharacterUtils.Tokenizer;
+import glade.util.OracleUtils;
+import glade.util.OracleUtils.AsyncDiscriminativeOracle;
+import glade.util.OracleUtils.DiscriminativeOracle;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+// Options for how synthesis runs. Seed minimization, chunking and the orders of the candidates
+// change the synthesized grammar, and the others do not.
+public class SynthesisSettings {
+	// the number of candidates checked at once by the regex synthesis (1 checks them one at a time)
+	public final int speculationWindow;
+	// the number of threads synthesizing independent subtrees at once (1 synthesizes them in order)
+	public final int numThreads;
+	// whether each seed is shrunk by the oracle before synthesis
+	public final boolean isSeedMinimized;
+	// seeds longer than this are synthesized one top level unit at a time (-1 never chunks them)
+	public final int chunkLength;
+	// ranks the split points tried first when searching for alternations (null tries them in order)
+	public final Tokenizer tokenizer;
+	// whether repetitions occurring more than once in the example are tried first
+	public final boolean isRepetitionRanked;
+	// how often (in milliseconds) the synthesis of a seed is saved to resume from (-1 never saves it)
+	public final long checkpointInterval;
+	private ThreadPoolExecutor pool = null;
+	
+	public SynthesisSettings(int speculationWindow, int numThreads, boolean isSeedMinimized, int chunkLength, Tokenizer tokenizer, boolean isRepetitionRanked, long checkpointInterval) {
+		this.speculationWindow = speculationWindow;
+		this.numThreads = numThreads;
+		this.isSeedMinimized = isSeedMinimized;
+		this.chunkLength = chunkLength;
+		this.tokenizer = tokenizer;
+		this.isRepetitionRanked = isRepetitionRanked;
+		this.checkpointInterval = checkpointInterval;
+	}
+	
+	public SynthesisSettings(int speculationWindow, int numThreads, boolean isSeedMinimized, int chunkLength, Tokenizer tokenizer, boolean isRepetitionRanked) {
+		this(speculationWindow, numThreads, isSeedMinimized, chunkLength, tokenizer, isRepetitionRanked, -1);
+	}
+	
+	public SynthesisSettings(int speculationWindow, int numThreads, boolean isSeedMinimized, int chunkLength, Tokenizer tokenizer) {
+		this(speculationWindow, numThreads, isSeedMinimized, chunkLength, tokenizer, false);
+	}
+	
+	public SynthesisSettings(int speculationWindow, int numThreads, boolean isSeedMinimized, int chunkLength) {
+		this(speculationWindow, numThreads, isSeedMinimized, chunkLength, null);
+	}
+	
+	public SynthesisSettings(int speculationWindow, int numThreads, boolean isSeedMinimized) {
+		this(speculationWindow, numThreads, isSeedMinimized, -1);
+	}
+	
+	public SynthesisSettings(int speculationWindow, int numThreads) {
+		this(speculationWindow, numThreads, false);
+	}
+	
+	public SynthesisSettings() {
+		this(1, 1);
+	}
+	
+	// Returns the pool for independent subtrees, or null if they are synthesized in order. The
+	// pool is only used with an asynchronous oracle, which is safe to call from several threads.
+	synchronized ExecutorService getPool(DiscriminativeOracle oracle) {
+		if(this.numThreads <= 1 || !(oracle instanceof AsyncDiscriminativeOracle)) {
+			return null;
+		}
+		if(this.pool == null) {
+			this.pool = new ThreadPoolExecutor(this.numThreads, this.numThreads, 1, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), OracleUtils.getDaemonThreadFactory("glade-synthesis"));
+			this.pool.allowCoreThreadTimeOut(true);
+		}
+		return this.pool;
+	}
+}
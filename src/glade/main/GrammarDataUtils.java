@@ -18,9 +18,16 @@ import glade.grammar.GrammarSerializer;
 import glade.grammar.GrammarUtils.Grammar;
 import glade.grammar.GrammarUtils.Node;
 import glade.grammar.synthesize.GrammarSynthesis;
+import glade.grammar.synthesize.RegexSynthesis.Worklist;
+import glade.grammar.synthesize.RegexSynthesis.Worklist.Checkpointer;
+import glade.grammar.synthesize.SynthesisSettings;
 import glade.main.ProgramDataUtils.ProgramData;
 import glade.main.ProgramDataUtils.ProgramExamples;
+import glade.util.Log;
+import glade.util.OracleUtils.DiscriminativeOracle;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.File;
@@ -31,11 +38,14 @@ import java.util.ArrayList;
 import java.util.List;
 
 public class GrammarDataUtils {
+	// minimized seeds and checkpoints are kept, since they are checked against their seed when loaded
 	public static void clearGrammarDirectory(String grammarPath, String name) {
 		File dir = new File(grammarPath + File.separator + name);
 		if(dir.exists()) {
 			for(File file : dir.listFiles()) {
-				file.delete();
+				if(!file.getName().endsWith(".min") && !file.getName().endsWith(".ckpt")) {
+					file.delete();
+				}
 			}
 		}
 	}
@@ -44,6 +54,14 @@ public class GrammarDataUtils {
 		return grammarPath + File.separator + name + File.separator + "example" + index + ".gram";
 	}
 	
+	private static String getSeedFilename(String grammarPath, String name, int index) {
+		return grammarPath + File.separator + name + File.separator + "example" + index + ".min";
+	}
+	
+	private static String getCheckpointFilename(String grammarPath, String name, int index) {
+		return grammarPath + File.separator + name + File.separator + "example" + index + ".ckpt";
+	}
+	
 	private static String getAllGrammarFilename(String grammarPath, String name) {
 		return grammarPath + File.separator + name + File.separator + "all.gram";
 	}
@@ -75,6 +93,101 @@ public class GrammarDataUtils {
 		}
 	}
 	
+	private static void writeString(DataOutputStream dos, String string) throws IOException {
+		dos.writeInt(string.length());
+		dos.writeChars(string);
+	}
+	
+	private static String readString(DataInputStream dis) throws IOException {
+		char[] chars = new char[dis.readInt()];
+		for(int i=0; i<chars.length; i++) {
+			chars[i] = dis.readChar();
+		}
+		return new String(chars);
+	}
+	
+	// saves the minimized seed together with the seed it was minimized from
+	public static void saveSeed(String filename, String example, String seed) {
+		try {
+			File file = new File(filename);
+			File parent = file.getParentFile();
+			if(parent != null) {
+				parent.mkdirs();
+			}
+			DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filename)));
+			writeString(dos, example);
+			writeString(dos, seed);
+			dos.close();
+		} catch(IOException e) {
+			throw new RuntimeException("Error saving seed: " + filename, e);
+		}
+	}
+	
+	// returns the minimized seed, or null if there is none for this example
+	public static String loadSeed(String filename, String example) {
+		if(!new File(filename).exists()) {
+			return null;
+		}
+		try {
+			DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(filename)));
+			try {
+				return readString(dis).equals(example) ? readString(dis) : null;
+			} finally {
+				dis.close();
+			}
+		} catch(IOException e) {
+			throw new RuntimeException("Error loading seed: " + filename, e);
+		}
+	}
+	
+	// the settings that change the decisions of the synthesis, which a checkpoint is only resumed with
+	private static String getCheckpointSettings(SynthesisSettings settings) {
+		return "seedMinimized=" + settings.isSeedMinimized + ",chunkLength=" + settings.chunkLength + ",tokenizer=" + (settings.tokenizer == null ? "" : settings.tokenizer.getClass().getName()) + ",repetitionRanked=" + settings.isRepetitionRanked;
+	}
+	
+	// written to a temporary file first, so a run stopped while saving keeps the previous checkpoint
+	public static void saveCheckpoint(String filename, Worklist worklist, SynthesisSettings settings) {
+		File file = new File(filename);
+		File tmp = new File(filename + ".tmp");
+		try {
+			File parent = file.getParentFile();
+			if(parent != null) {
+				parent.mkdirs();
+			}
+			DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+			writeString(dos, getCheckpointSettings(settings));
+			worklist.checkpoint(dos);
+			dos.close();
+		} catch(IOException e) {
+			throw new RuntimeException("Error saving checkpoint: " + filename, e);
+		}
+		if(!tmp.renameTo(file)) {
+			throw new RuntimeException("Error saving checkpoint: " + filename);
+		}
+	}
+	
+	// returns the resumed worklist, or null if there is no checkpoint for this seed and settings
+	public static Worklist loadCheckpoint(String filename, String seed, DiscriminativeOracle oracle, SynthesisSettings settings) {
+		if(!new File(filename).exists()) {
+			return null;
+		}
+		try {
+			DataInputStream dis = new DataInputStream(new BufferedInputStream(new FileInputStream(filename)));
+			try {
+				if(!readString(dis).equals(getCheckpointSettings(settings))) {
+					Log.info("IGNORED CHECKPOINT WITH DIFFERENT SETTINGS: " + filename);
+					return null;
+				}
+				Worklist worklist = Worklist.resume(dis, oracle, settings);
+				return worklist.getExample().equals(seed) ? worklist : null;
+			} finally {
+				dis.close();
+			}
+		} catch(IOException e) {
+			throw new RuntimeException("Error loading checkpoint: " + filename, e);
+		}
+	}
+	
 	public static void saveGrammar(String grammarPath, String name, int index, Grammar grammar) {
 		saveGrammar(getGrammarFilename(grammarPath, name, index), grammar);
 	}
@@ -92,25 +205,73 @@ public class GrammarDataUtils {
 	}
 
 	public static void learnGrammar(String grammarPath, String name, ProgramData data, ProgramExamples examples, int index) {
+		learnGrammar(grammarPath, name, data, examples, index, new SynthesisSettings());
+	}
+	
+	public static void learnGrammar(String grammarPath, String name, ProgramData data, ProgramExamples examples, int index, SynthesisSettings settings) {
+		learnGrammar(grammarPath, name, ProgramDataUtils.getQueryOracle(data, name), examples, index, settings);
+	}
+	
+	private static void learnGrammar(String grammarPath, String name, DiscriminativeOracle oracle, ProgramExamples examples, int index, SynthesisSettings settings) {
 		String example = examples.getTrainExamples().get(index);
-		Grammar grammar = GrammarSynthesis.getGrammarSingle(example, ProgramDataUtils.getQueryOracle(data));
+		String seed = settings.isSeedMinimized ? getSeed(grammarPath, name, oracle, example, index, settings) : example;
+		if(settings.checkpointInterval == -1) {
+			saveGrammar(grammarPath, name, index, GrammarSynthesis.getGrammarSingleFromSeed(seed, oracle, settings));
+			return;
+		}
+		final String filename = getCheckpointFilename(grammarPath, name, index);
+		Worklist worklist = loadCheckpoint(filename, seed, oracle, settings);
+		if(worklist == null) {
+			worklist = new Worklist(seed, oracle, settings);
+		} else {
+			Log.info("RESUMED FROM CHECKPOINT: " + filename + ", pending subproblems: " + worklist.getNumPending());
+		}
+		Grammar grammar = GrammarSynthesis.getGrammarSingleFromWorklist(worklist, oracle, settings, settings.checkpointInterval, new Checkpointer() {
+			@Override
+			public void checkpoint(Worklist worklist) {
+				saveCheckpoint(filename, worklist, settings);
+			}
+		});
 		saveGrammar(grammarPath, name, index, grammar);
+		new File(filename).delete();
+	}
+	
+	private static String getSeed(String grammarPath, String name, DiscriminativeOracle oracle, String example, int index, SynthesisSettings settings) {
+		String filename = getSeedFilename(grammarPath, name, index);
+		String seed = loadSeed(filename, example);
+		if(seed != null) {
+			Log.info("LOADED MINIMIZED EXAMPLE: " + filename);
+			return seed;
+		}
+		seed = GrammarSynthesis.getSeed(example, oracle, settings);
+		saveSeed(filename, example, seed);
+		return seed;
 	}
 	
 	public static void mergeGrammar(String grammarPath, String name, ProgramData data, ProgramExamples examples) {
+		mergeGrammar(grammarPath, name, ProgramDataUtils.getQueryOracle(data, name), examples);
+	}
+	
+	private static void mergeGrammar(String grammarPath, String name, DiscriminativeOracle oracle, ProgramExamples examples) {
 		List<Node> roots = new ArrayList<Node>();
 		for(int i=0; i<examples.getTrainExamples().size(); i++) {
 			roots.add(GrammarDataUtils.loadGrammar(grammarPath, name, i).node);
 		}
-		Grammar grammar = GrammarSynthesis.getGrammarMultipleFromRoots(roots, ProgramDataUtils.getQueryOracle(data));
+		Grammar grammar = GrammarSynthesis.getGrammarMultipleFromRoots(roots, oracle);
 		saveAllGrammar(grammarPath, name, grammar);
 	}
 	
 	public static void learnAllGrammar(String grammarPath, String name, ProgramData data, ProgramExamples examples) {
+		learnAllGrammar(grammarPath, name, data, examples, new SynthesisSettings());
+	}
+	
+	public static void learnAllGrammar(String grammarPath, String name, ProgramData data, ProgramExamples examples, SynthesisSettings settings) {
 		clearGrammarDirectory(grammarPath, name);
+		DiscriminativeOracle oracle = ProgramDataUtils.getQueryOracle(data, name);
 		for(int i=0; i<examples.getTrainExamples().size(); i++) {
-			learnGrammar(grammarPath, name, data, examples, i);
+			learnGrammar(grammarPath, name, oracle, examples, i, settings);
 		}
-		mergeGrammar(grammarPath, name, data, examples);
+		mergeGrammar(grammarPath, name, oracle, examples);
+		Log.info("ORACLE: " + oracle);
 	}
 }
@@ -16,12 +16,15 @@ package glade.main;
 
 import glade.constants.Files;
 import glade.grammar.fuzz.GrammarFuzzer.SampleParameters;
+import glade.grammar.synthesize.SynthesisSettings;
 import glade.main.Settings.FuzzSettings;
 import glade.main.Settings.Fuzzer;
 import glade.main.Settings.GrammarSettings;
 import glade.main.Settings.Program;
 import glade.main.Settings.ProgramSettings;
+import glade.util.CharacterUtils.CharacterClassTokenizer;
 import glade.util.Log;
+import glade.util.OracleUtils.DiscriminativeOracle;
 
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -30,7 +33,11 @@ import java.util.Random;
 
 public class Main {
 	public static GrammarSettings getDefaultGrammarSettings() {
-		return new GrammarSettings(Files.GRAMMAR_PATH);
+		return new GrammarSettings(Files.GRAMMAR_PATH, getDefaultSynthesisSettings());
+	}
+	
+	public static SynthesisSettings getDefaultSynthesisSettings() {
+		return new SynthesisSettings(Files.SPECULATION_WINDOW, Files.NUM_SYNTHESIS_THREADS, Files.IS_SEED_MINIMIZED, Files.CHUNK_LENGTH, Files.IS_SPLIT_TOKENIZED ? new CharacterClassTokenizer() : null, Files.IS_REPETITION_RANKED, Files.CHECKPOINT_INTERVAL);
 	}
 	
 	public static SampleParameters getDefaultSampleParameters() {
@@ -41,8 +48,8 @@ public class Main {
 		return new FuzzSettings(20, 10, 1000, getDefaultSampleParameters(), fuzzer);
 	}
 	
-	private static boolean runTest(ProgramSettings program, String example) {
-		if(ProgramDataUtils.getQueryOracle(program.data).query(example)) {
+	private static boolean runTest(ProgramSettings program, DiscriminativeOracle oracle, String example) {
+		if(oracle.query(example)) {
 			Log.info("TEST PASSED!");
 			return true;
 		} else {
@@ -64,12 +71,13 @@ public class Main {
 	
 	public static IntPair runTest(ProgramSettings program) {
 		Log.info("TESTING PROGRAM: " + program.name);
+		DiscriminativeOracle oracle = ProgramDataUtils.getQueryOracle(program.data, program.name);
 		int pass = 0;
 		int fail = 0;
 		for(String example : program.examples.getEmptyExamples()) {
 			Log.info("TESTING EMPTY EXAMPLE:");
 			Log.info(example);
-			if(runTest(program, example)) {
+			if(runTest(program, oracle, example)) {
 				pass++;
 			} else {
 				fail++;
@@ -78,7 +86,7 @@ public class Main {
 		for(String example : program.examples.getTrainExamples()) {
 			Log.info("TESTING TRAINING EXAMPLE:");
 			Log.info(example);
-			if(runTest(program, example)) {
+			if(runTest(program, oracle, example)) {
 				pass++;
 			} else {
 				fail++;
@@ -88,17 +96,18 @@ public class Main {
 	}
 	
 	public static void runLearn(ProgramSettings program, GrammarSettings grammar) {
-		GrammarDataUtils.learnAllGrammar(grammar.grammarPath, program.name, program.data, program.examples);
+		GrammarDataUtils.learnAllGrammar(grammar.grammarPath, program.name, program.data, program.examples, grammar.synthesis);
 	}
 	
 	public static void runFuzz(ProgramSettings program, GrammarSettings grammar, FuzzSettings fuzz, Random random) {
 		Iterable<String> samples = fuzz.fuzzer.getSamples(program, grammar, fuzz, random);
+		DiscriminativeOracle oracle = ProgramDataUtils.getQueryOracle(program.data, program.name);
 		int pass = 0;
 		int count = 0;
 		for(String sample : samples) {
 			Log.info("SAMPLE:");
 			Log.info(sample);
-			if(ProgramDataUtils.getQueryOracle(program.data).query(sample)) {
+			if(oracle.query(sample)) {
 				Log.info("PASS\n");
 				pass++;
 			} else {
@@ -113,7 +122,7 @@ public class Main {
 	}
 	
 	public static void usage() {
-		System.out.println("usage: java -jar glade.jar -mode [learn|fuzz|test] [-program [sed|grep|flex|xml|python|python-wrapped]] [-fuzzer [grammar|combined]] [-log <filename>] [-verbose]");
+		System.out.println("usage: java -jar glade.jar -mode [learn|fuzz|test] [-program [sed|grep|flex|xml|python|python-wrapped|python-harness|xml-harness|xml-jdk]] [-fuzzer [grammar|combined]] [-log <filename>] [-verbose]");
 		System.out.println("note: -program option required if mode=learn or mode=fuzz");
 		System.out.println("note: -fuzzer option required if mode=fuzz");
 		System.out.println("note: -log defaults to log.txt");
@@ -134,6 +143,12 @@ public class Main {
 			return Program.PYTHON;
 		} else if(programName.equals("python-wrapped")) {
 			return Program.PYTHON_WRAPPED;
+		} else if(programName.equals("python-harness")) {
+			return Program.PYTHON_HARNESS;
+		} else if(programName.equals("xml-harness")) {
+			return Program.XML_HARNESS;
+		} else if(programName.equals("xml-jdk")) {
+			return Program.XML_JDK;
 		} else {
 			usage();
 			return null;
@@ -14,20 +14,41 @@
 
 package glade.main;
 
+import glade.constants.Files;
+import glade.util.CheckerUtils;
+import glade.util.CheckerUtils.Checker;
+import glade.util.CheckerUtils.InProcessOracle;
+import glade.util.Log;
+import glade.util.OracleUtils.CachedDiscriminativeOracle;
+import glade.util.OracleUtils.CascadeDiscriminativeOracle;
+import glade.util.OracleUtils.ConcurrentDiscriminativeOracle;
 import glade.util.OracleUtils.DiscriminativeOracle;
 import glade.util.OracleUtils.Oracle;
+import glade.util.OracleUtils.Rejecter;
 import glade.util.OracleUtils.WrappedOracle;
 import glade.util.OracleUtils.Wrapper;
+import glade.util.ShellUtils.AdaptiveTimeout;
+import glade.util.ShellUtils.BatchCommandFactory;
+import glade.util.ShellUtils.BatchShellOracle;
+import glade.util.ShellUtils.BatchVerdictParser;
 import glade.util.ShellUtils.CommandFactory;
+import glade.util.ShellUtils.Delivery;
 import glade.util.ShellUtils.ExecuteDiscriminativeOracle;
-import glade.util.ShellUtils.ShellOracle;
+import glade.util.ShellUtils.HarnessOracle;
+import glade.util.ShellUtils.PooledExitCodeOracle;
+import glade.util.ShellUtils.PooledOracle;
+import glade.util.ShellUtils.PooledShellOracle;
 import glade.util.ShellUtils.SimpleCommandFactory;
+import glade.util.ShellUtils.SpawnAheadOracle;
+import glade.util.StoreUtils.StoredDiscriminativeOracle;
+import glade.util.StoreUtils.VerdictStore;
 import glade.util.Utils;
 
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.net.URL;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -38,12 +59,30 @@ public class ProgramDataUtils {
 		public final String auxFilename;
 		public final long timeout;
 		public final String exampleTrainPath;
-		public FileParameters(String queryProg, String filename, String auxFilename, long timeout, String exampleTrainPath) {
+		public final String scratchPath;
+		public final int numWorkers;
+		public final int spawnAheadDepth;
+		public final boolean isTimeoutAdaptive;
+		public FileParameters(String queryProg, String filename, String auxFilename, long timeout, String exampleTrainPath, String scratchPath, int numWorkers, int spawnAheadDepth, boolean isTimeoutAdaptive) {
 			this.queryProg = queryProg;
 			this.filename = filename;
 			this.auxFilename = auxFilename;
 			this.timeout = timeout;
 			this.exampleTrainPath = exampleTrainPath;
+			this.scratchPath = scratchPath;
+			this.numWorkers = numWorkers;
+			this.spawnAheadDepth = spawnAheadDepth;
+			this.isTimeoutAdaptive = isTimeoutAdaptive;
+		}
+		public FileParameters(String queryProg, String filename, String auxFilename, long timeout, String exampleTrainPath, String scratchPath, int numWorkers, int spawnAheadDepth) {
+			this(queryProg, filename, auxFilename, timeout, exampleTrainPath, scratchPath, numWorkers, spawnAheadDepth, false);
+		}
+		// a new one for each program, which all of its workers share
+		public AdaptiveTimeout getAdaptiveTimeout() {
+			return this.isTimeoutAdaptive ? new AdaptiveTimeout(this.timeout) : null;
+		}
+		public FileParameters(String queryProg, String filename, String auxFilename, long timeout, String exampleTrainPath) {
+			this(queryProg, filename, auxFilename, timeout, exampleTrainPath, System.getProperty("java.io.tmpdir"), 1, 0);
 		}
 	}
 	
@@ -51,8 +90,20 @@ public class ProgramDataUtils {
 		public abstract Oracle getOracle();
 	}
 	
-	public static DiscriminativeOracle getQueryOracle(ProgramData data) {
-		return new ExecuteDiscriminativeOracle(data.getOracle());
+	// the rejecters run before the cache, so that rejected queries never take up cache entries
+	private static DiscriminativeOracle getCascadeOracle(ProgramData data, DiscriminativeOracle oracle) {
+		return data instanceof CascadeProgramData ? new CascadeDiscriminativeOracle(((CascadeProgramData)data).getRejecters(), oracle) : oracle;
+	}
+	
+	// also consults (and extends) the verdicts stored on disk by earlier runs for the same program
+	public static DiscriminativeOracle getQueryOracle(ProgramData data, String name) {
+		DiscriminativeOracle oracle = new ExecuteDiscriminativeOracle(data.getOracle());
+		try {
+			oracle = new StoredDiscriminativeOracle(oracle, VerdictStore.getStore(Files.VERDICT_PATH, name));
+		} catch(RuntimeException e) {
+			Log.info("VERDICT STORE UNAVAILABLE: " + e.getMessage());
+		}
+		return new ConcurrentDiscriminativeOracle(getCascadeOracle(data, new CachedDiscriminativeOracle(oracle, Files.ORACLE_CACHE_BYTES, Files.ORACLE_CACHE_STRIPES)), Files.NUM_WORKERS);
 	}
 	
 	public static interface ProgramExamples {
@@ -65,21 +116,145 @@ public class ProgramDataUtils {
 		private final CommandFactory factory;
 		private final String exePath;
 		private final boolean isError;
+		private final Delivery delivery;
+		private final BatchVerdictParser parser;
+		private final int batchSize;
+		private Oracle oracle = null;
 		
-		public ShellProgramData(FileParameters file, CommandFactory factory, String exePath, boolean isError) {
+		private ShellProgramData(FileParameters file, CommandFactory factory, String exePath, boolean isError, Delivery delivery, BatchVerdictParser parser, int batchSize) {
 			this.file = file;
 			this.factory = factory;
 			this.exePath = exePath;
 			this.isError = isError;
+			this.delivery = delivery;
+			this.parser = parser;
+			this.batchSize = batchSize;
+		}
+		
+		public ShellProgramData(FileParameters file, CommandFactory factory, String exePath, boolean isError, Delivery delivery) {
+			this(file, factory, exePath, isError, delivery, null, 1);
+		}
+		
+		// checks up to batchSize queries per invocation of the target
+		public ShellProgramData(FileParameters file, BatchCommandFactory factory, String exePath, boolean isError, BatchVerdictParser parser, int batchSize) {
+			this(file, factory, exePath, isError, Delivery.FILE, parser, batchSize);
+		}
+		
+		public ShellProgramData(FileParameters file, CommandFactory factory, String exePath, boolean isError) {
+			this(file, factory, exePath, isError, Delivery.FILE);
 		}
 		
 		public ShellProgramData(FileParameters file, String exePath, boolean isError) {
 			this(file, new SimpleCommandFactory(), exePath, isError);
 		}
 		
+		// the worker pool (or the spawned processes) is shared by all oracles for this program
 		@Override
-		public Oracle getOracle() {
-			return new ShellOracle(this.file.filename, this.file.auxFilename, this.factory.getCommand(this.file.filename, this.file.auxFilename, this.file.queryProg + File.separator + this.exePath), this.isError, this.file.timeout);
+		public synchronized Oracle getOracle() {
+			// batches and spawned processes read their queries from files, with a fixed timeout
+			if(this.batchSize > 1 && (this.delivery != Delivery.FILE || this.file.isTimeoutAdaptive || this.file.spawnAheadDepth > 0)) {
+				throw new IllegalArgumentException("Batched queries require file delivery, a fixed timeout, and no spawn ahead!");
+			}
+			if(this.file.spawnAheadDepth > 0 && (this.delivery != Delivery.FILE || this.file.isTimeoutAdaptive)) {
+				throw new IllegalArgumentException("Spawn ahead requires file delivery and a fixed timeout!");
+			}
+			if(this.oracle == null && this.batchSize > 1) {
+				this.oracle = new BatchShellOracle((BatchCommandFactory)this.factory, this.parser, this.file.queryProg + File.separator + this.exePath, this.file.filename, this.file.auxFilename, this.isError, this.file.timeout, this.file.scratchPath, this.file.numWorkers, this.batchSize);
+			} else if(this.oracle == null && this.file.spawnAheadDepth > 0) {
+				this.oracle = new SpawnAheadOracle(this.factory, this.file.queryProg + File.separator + this.exePath, this.file.auxFilename, this.isError, this.file.timeout, this.file.scratchPath, this.file.spawnAheadDepth);
+			} else if(this.oracle == null) {
+				this.oracle = new PooledShellOracle(this.factory, this.file.queryProg + File.separator + this.exePath, this.file.filename, this.file.auxFilename, this.isError, this.file.timeout, this.file.scratchPath, this.file.numWorkers, this.delivery, this.file.getAdaptiveTimeout());
+			}
+			return this.oracle;
+		}
+	}
+	
+	// for targets that report validity only through their exit code
+	public static class ExitCodeProgramData implements ProgramData {
+		private final FileParameters file;
+		private final CommandFactory factory;
+		private final String exePath;
+		private final List<Integer> acceptedExitCodes;
+		private Oracle oracle = null;
+		
+		public ExitCodeProgramData(FileParameters file, CommandFactory factory, String exePath, List<Integer> acceptedExitCodes) {
+			this.file = file;
+			this.factory = factory;
+			this.exePath = exePath;
+			this.acceptedExitCodes = acceptedExitCodes;
+		}
+		
+		public ExitCodeProgramData(FileParameters file, String exePath) {
+			this(file, new SimpleCommandFactory(), exePath, Utils.getList(0));
+		}
+		
+		@Override
+		public synchronized Oracle getOracle() {
+			if(this.oracle == null) {
+				this.oracle = new PooledExitCodeOracle(this.factory, this.file.queryProg + File.separator + this.exePath, this.file.filename, this.file.auxFilename, this.acceptedExitCodes, this.file.timeout, this.file.scratchPath, this.file.numWorkers, this.file.getAdaptiveTimeout());
+			}
+			return this.oracle;
+		}
+	}
+	
+	public static class InProcessProgramData implements ProgramData {
+		private final FileParameters file;
+		private final Checker checker;
+		private final String className;
+		private final URL[] classpath;
+		private Oracle oracle = null;
+		
+		private InProcessProgramData(FileParameters file, Checker checker, String className, URL[] classpath) {
+			this.file = file;
+			this.checker = checker;
+			this.className = className;
+			this.classpath = classpath;
+		}
+		
+		public InProcessProgramData(FileParameters file, Checker checker) {
+			this(file, checker, null, null);
+		}
+		
+		// the checker is loaded in its own class loader, once the oracle is first needed
+		public InProcessProgramData(FileParameters file, String className, URL ... classpath) {
+			this(file, null, className, classpath);
+		}
+		
+		@Override
+		public synchronized Oracle getOracle() {
+			if(this.oracle == null) {
+				Checker checker = this.checker != null ? this.checker : CheckerUtils.loadChecker(this.className, this.classpath);
+				this.oracle = new InProcessOracle(checker, this.file.timeout, this.file.numWorkers);
+			}
+			return this.oracle;
+		}
+	}
+	
+	public static class HarnessProgramData implements ProgramData {
+		private final FileParameters file;
+		private final String exePath;
+		private final String harnessPath;
+		private Oracle oracle = null;
+		
+		public HarnessProgramData(FileParameters file, String exePath, String harnessPath) {
+			this.file = file;
+			this.exePath = exePath;
+			this.harnessPath = harnessPath;
+		}
+		
+		@Override
+		public synchronized Oracle getOracle() {
+			if(this.oracle == null) {
+				// the harness enforces the timeout itself, so only give up on it if it stops responding
+				String command = this.file.queryProg + File.separator + this.exePath + " " + this.harnessPath + " " + this.file.timeout;
+				long timeout = this.file.timeout == -1 ? -1 : 2*this.file.timeout;
+				List<Oracle> workers = new ArrayList<Oracle>();
+				for(int i=0; i<this.file.numWorkers; i++) {
+					workers.add(new HarnessOracle(command, timeout, Files.HARNESS_STARTUP_TIMEOUT));
+				}
+				this.oracle = new PooledOracle(workers);
+			}
+			return this.oracle;
 		}
 	}
 	
@@ -98,6 +273,26 @@ public class ProgramDataUtils {
 		}
 	}
 	
+	// queries rejected by any of the rejecters are never run on the program
+	public static class CascadeProgramData implements ProgramData {
+		private final ProgramData data;
+		private final List<Rejecter> rejecters;
+		
+		public CascadeProgramData(ProgramData data, List<Rejecter> rejecters) {
+			this.data = data;
+			this.rejecters = rejecters;
+		}
+		
+		public List<Rejecter> getRejecters() {
+			return this.rejecters;
+		}
+		
+		@Override
+		public Oracle getOracle() {
+			return this.data.getOracle();
+		}
+	}
+	
 	public static class SingleFileProgramExamples implements ProgramExamples {
 		private final FileParameters file;
 		private final String name;
@@ -24,6 +24,7 @@ import glade.grammar.fuzz.GrammarFuzzer.CombinedMutationSampler;
 import glade.grammar.fuzz.GrammarFuzzer.GrammarMutationSampler;
 import glade.grammar.fuzz.GrammarFuzzer.GrammarSampler;
 import glade.grammar.fuzz.GrammarFuzzer.SampleParameters;
+import glade.grammar.synthesize.SynthesisSettings;
 import glade.main.ProgramDataUtils.ProgramData;
 import glade.main.ProgramDataUtils.ProgramExamples;
 
@@ -33,8 +34,13 @@ import java.util.Random;
 public class Settings {
 	public static class GrammarSettings {
 		public final String grammarPath;
-		public GrammarSettings(String grammarPath) {
+		public final SynthesisSettings synthesis;
+		public GrammarSettings(String grammarPath, SynthesisSettings synthesis) {
 			this.grammarPath = grammarPath;
+			this.synthesis = synthesis;
+		}
+		public GrammarSettings(String grammarPath) {
+			this(grammarPath, new SynthesisSettings());
 		}
 	}
 	
@@ -65,13 +71,19 @@ public class Settings {
 	}
 	
 	public static enum Program {
-		XML, GREP, SED, FLEX, PYTHON, PYTHON_WRAPPED;
+		XML, GREP, SED, FLEX, PYTHON, PYTHON_WRAPPED, PYTHON_HARNESS, XML_HARNESS, XML_JDK;
 		public ProgramSettings getSettings() {
 			switch(this) {
 			case XML:
 				return new ProgramSettings(XmlData.XML_DATA, XmlData.XML_EXAMPLES, XmlData.XML_NAME);
 			case PYTHON:
 				return new ProgramSettings(PythonData.PYTHON_DATA, PythonData.PYTHON_EXAMPLES, PythonData.PYTHON_NAME);
+			case PYTHON_HARNESS:
+				return new ProgramSettings(PythonData.PYTHON_HARNESS_DATA, PythonData.PYTHON_EXAMPLES, PythonData.PYTHON_HARNESS_NAME);
+			case XML_HARNESS:
+				return new ProgramSettings(XmlData.XML_HARNESS_DATA, XmlData.XML_EXAMPLES, XmlData.XML_HARNESS_NAME);
+			case XML_JDK:
+				return new ProgramSettings(XmlData.XML_JDK_DATA, XmlData.XML_EXAMPLES, XmlData.XML_JDK_NAME);
 			case PYTHON_WRAPPED:
 				return new ProgramSettings(PythonWrappedData.PYTHON_WRAPPED_DATA, PythonWrappedData.PYTHON_EXAMPLES, PythonWrappedData.PYTHON_WRAPPED_NAME);
 			case GREP:
@@ -57,6 +57,31 @@ public class CharacterUtils {
 		return c == 34;
 	}
 	
+	// tokens are runs of alphanumeric characters or of whitespace, and single other characters
+	public static boolean isTokenBoundary(char first, char second) {
+		return !(isAlphaNumeric(first) && isAlphaNumeric(second)) && !(Character.isWhitespace(first) && Character.isWhitespace(second));
+	}
+	
+	// Ranks the split points of an example, which are tried before the others when searching.
+	public static interface Tokenizer {
+		// the split points i (0 < i < length) to try first, in order
+		public abstract List<Integer> getSplits(String example);
+	}
+	
+	// the boundaries between tokens, from left to right
+	public static class CharacterClassTokenizer implements Tokenizer {
+		@Override
+		public List<Integer> getSplits(String example) {
+			List<Integer> splits = new ArrayList<Integer>();
+			for(int i=1; i<example.length(); i++) {
+				if(isTokenBoundary(example.charAt(i-1), example.charAt(i))) {
+					splits.add(i);
+				}
+			}
+			return splits;
+		}
+	}
+	
 	public static class CharacterGeneralization {
 		public final Set<Character> triggers;
 		public final List<Character> characters;
@@ -0,0 +1,355 @@
+// Copyright 2015-2016 Stanford University
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package glade.util;
+
+import glade.util.OracleUtils.Query;
+import glade.util.OracleUtils.Verdict;
+import glade.util.OracleUtils.VerdictOracle;
+
+import java.io.Closeable;
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+import org.xml.sax.helpers.DefaultHandler;
+
+public class CheckerUtils {
+	// A target that is checked inside the JVM. Returns the error output for the query, which is
+	// empty if the query is valid. Checkers are called from several threads at once, and should
+	// stop when interrupted, which is how the oracle enforces the timeout. This is best effort: the
+	// JVM has no way to stop a thread that ignores the interrupt, so the check only stops as soon
+	// as it next looks at the flag (e.g., on the next read of an InterruptibleReader).
+	public static interface Checker {
+		public abstract String check(String query) throws Exception;
+	}
+	
+	// Loads classes from its own classpath before asking its parent, so that a checker gets its
+	// own copy of its classes and their static state. Only the Checker interface and the JDK
+	// come from the parent, so that GLADE can call the checker through the interface.
+	private static class CheckerClassLoader extends URLClassLoader {
+		static {
+			registerAsParallelCapable();
+		}
+		
+		private CheckerClassLoader(URL[] classpath, ClassLoader parent) {
+			super(classpath, parent);
+		}
+		
+		@Override
+		protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+			synchronized(this.getClassLoadingLock(name)) {
+				Class<?> loaded = this.findLoadedClass(name);
+				if(loaded == null && !name.equals(Checker.class.getName()) && !name.startsWith("java.")) {
+					try {
+						loaded = this.findClass(name);
+					} catch(ClassNotFoundException e) {}
+				}
+				if(loaded == null) {
+					loaded = super.loadClass(name, false);
+				}
+				if(resolve) {
+					this.resolveClass(loaded);
+				}
+				return loaded;
+			}
+		}
+	}
+	
+	// a checker loaded in its own class loader, which is closed together with the checker
+	public static class IsolatedChecker implements Checker, Closeable {
+		private final URLClassLoader loader;
+		private final Checker checker;
+		
+		private IsolatedChecker(URLClassLoader loader, Checker checker) {
+			this.loader = loader;
+			this.checker = checker;
+		}
+		
+		@Override
+		public String check(String query) throws Exception {
+			return this.checker.check(query);
+		}
+		
+		@Override
+		public void close() throws IOException {
+			this.loader.close();
+		}
+	}
+	
+	// loads the checker (with a public no argument constructor) from the given classpath
+	public static IsolatedChecker loadChecker(String className, URL ... classpath) {
+		URLClassLoader loader = new CheckerClassLoader(classpath, Checker.class.getClassLoader());
+		try {
+			return new IsolatedChecker(loader, loader.loadClass(className).asSubclass(Checker.class).getDeclaredConstructor().newInstance());
+		} catch(Exception e) {
+			try {
+				loader.close();
+			} catch(IOException f) {}
+			throw new RuntimeException("Error loading checker: " + className, e);
+		}
+	}
+	
+	// the classpath entry (directory or jar) that the class was loaded from
+	public static URL getClasspath(Class<?> loaded) {
+		return loaded.getProtectionDomain().getCodeSource().getLocation();
+	}
+	
+	// Runs the checker on a pool of threads. The timeout bounds the CPU time of the query (the
+	// wall clock time if the JVM cannot measure thread CPU time), and the query is interrupted
+	// once it is exceeded; a query that is blocked gets four times as long in wall clock time.
+	// A check that keeps running after the interrupt holds on to its thread, so the pool gets
+	// an extra thread until it stops.
+	public static class InProcessOracle implements VerdictOracle {
+		private static final long POLL_MILLIS = 5;
+		private static final long MAX_WALL_FACTOR = 4;
+		
+		private final Checker checker;
+		private final long timeoutMillis;
+		private final ThreadPoolExecutor executor;
+		private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		
+		public InProcessOracle(Checker checker, long timeoutMillis, int numThreads) {
+			this.checker = checker;
+			this.timeoutMillis = timeoutMillis;
+			this.executor = new ThreadPoolExecutor(numThreads, numThreads, 1, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), OracleUtils.getDaemonThreadFactory("glade-checker"));
+			this.executor.allowCoreThreadTimeOut(true);
+		}
+		
+		private class Check implements Callable<String> {
+			private final String query;
+			private volatile Thread thread = null;
+			private volatile long startCpuNanos = -1;
+			private boolean isDone = false;
+			private boolean isAbandoned = false;
+			private Check(String query) {
+				this.query = query;
+			}
+			@Override
+			public String call() throws Exception {
+				this.startCpuNanos = getCpuNanos(Thread.currentThread());
+				this.thread = Thread.currentThread();
+				try {
+					return checker.check(this.query);
+				} finally {
+					synchronized(this) {
+						this.isDone = true;
+						if(this.isAbandoned) {
+							resize(-1);
+						}
+					}
+				}
+			}
+			// replaces the thread of the check, if it is still running after being interrupted
+			private synchronized void abandon() {
+				if(!this.isDone) {
+					this.isAbandoned = true;
+					resize(1);
+				}
+			}
+		}
+		
+		private void resize(int delta) {
+			synchronized(this.executor) {
+				if(delta > 0) {
+					this.executor.setMaximumPoolSize(this.executor.getMaximumPoolSize() + delta);
+					this.executor.setCorePoolSize(this.executor.getCorePoolSize() + delta);
+				} else {
+					this.executor.setCorePoolSize(this.executor.getCorePoolSize() + delta);
+					this.executor.setMaximumPoolSize(this.executor.getMaximumPoolSize() + delta);
+				}
+			}
+		}
+		
+		private long getCpuNanos(Thread thread) {
+			return this.threads.isThreadCpuTimeSupported() ? this.threads.getThreadCpuTime(thread.getId()) : System.nanoTime();
+		}
+		
+		private boolean isTimedOut(Check check, long waitedMillis) {
+			if(this.timeoutMillis == -1) {
+				return false;
+			}
+			if(waitedMillis > MAX_WALL_FACTOR * this.timeoutMillis) {
+				return true;
+			}
+			Thread thread = check.thread;
+			return thread != null && getCpuNanos(thread) - check.startCpuNanos > TimeUnit.MILLISECONDS.toNanos(this.timeoutMillis);
+		}
+		
+		// the output is only written for an accepted or rejected query
+		private Verdict run(String query, StringBuilder output) {
+			Check check = new Check(query);
+			Future<String> result = this.executor.submit(check);
+			long startMillis = System.currentTimeMillis();
+			try {
+				while(true) {
+					try {
+						output.append(result.get(POLL_MILLIS, TimeUnit.MILLISECONDS));
+						return output.toString().matches("\\s*") ? Verdict.ACCEPT : Verdict.REJECT;
+					} catch(TimeoutException e) {
+						if(check.thread != null && this.isTimedOut(check, System.currentTimeMillis() - startMillis)) {
+							result.cancel(true);
+							check.abandon();
+							return Verdict.TIMEOUT;
+						}
+					}
+				}
+			} catch(InterruptedException e) {
+				result.cancel(true);
+				check.abandon();
+				Thread.currentThread().interrupt();
+				throw new RuntimeException("Interrupted while checking query!", e);
+			} catch(ExecutionException e) {
+				throw new RuntimeException("Error checking query!", e.getCause());
+			}
+		}
+		
+		// stops the threads, and closes the checker if it was loaded in its own class loader
+		public void close() {
+			this.executor.shutdownNow();
+			if(this.checker instanceof Closeable) {
+				try {
+					((Closeable)this.checker).close();
+				} catch(IOException e) {
+					throw new RuntimeException("Error closing checker!", e);
+				}
+			}
+		}
+		
+		@Override
+		public String execute(String query) {
+			StringBuilder output = new StringBuilder();
+			return this.run(query, output) == Verdict.TIMEOUT ? "Timeout!" : output.toString();
+		}
+		
+		@Override
+		public boolean isBlank(String query) {
+			return this.getVerdict(Query.of(query)) == Verdict.ACCEPT;
+		}
+		
+		@Override
+		public boolean isBlank(Query query) {
+			return this.getVerdict(query) == Verdict.ACCEPT;
+		}
+		
+		@Override
+		public Verdict getVerdict(Query query) {
+			return this.run(query.toString(), new StringBuilder());
+		}
+	}
+	
+	// a reader that stops when its thread is interrupted, for parsers that never check
+	public static class InterruptibleReader extends FilterReader {
+		public InterruptibleReader(Reader reader) {
+			super(reader);
+		}
+		
+		@Override
+		public int read(char[] buffer, int offset, int length) throws IOException {
+			if(Thread.interrupted()) {
+				throw new InterruptedIOException("Interrupted while reading query!");
+			}
+			return super.read(buffer, offset, length);
+		}
+	}
+	
+	// A SAX handler that stops the parse when its thread is interrupted. The parser reads the
+	// query in large chunks, so an InterruptibleReader alone rarely sees the interrupt.
+	private static class InterruptibleHandler extends DefaultHandler {
+		private void checkInterrupted() throws SAXException {
+			if(Thread.interrupted()) {
+				throw new SAXException("Interrupted while parsing query!");
+			}
+		}
+		
+		@Override
+		public void startElement(String uri, String localName, String qName, Attributes attributes) throws SAXException {
+			this.checkInterrupted();
+		}
+		
+		@Override
+		public void endElement(String uri, String localName, String qName) throws SAXException {
+			this.checkInterrupted();
+		}
+		
+		@Override
+		public void characters(char[] ch, int start, int length) throws SAXException {
+			this.checkInterrupted();
+		}
+		
+		@Override
+		public void ignorableWhitespace(char[] ch, int start, int length) throws SAXException {
+			this.checkInterrupted();
+		}
+		
+		@Override
+		public void processingInstruction(String target, String data) throws SAXException {
+			this.checkInterrupted();
+		}
+	}
+	
+	// Checks that the query is well-formed XML (including namespaces), using the SAX parser of
+	// the JDK. External DTDs and entities are never loaded, so the check depends only on the
+	// query. Its error messages, and a few of its verdicts, differ from those of xmllint. The parse
+	// stops on the next element or text after an interrupt.
+	public static class XmlChecker implements Checker {
+		private final ThreadLocal<SAXParser> parsers = new ThreadLocal<SAXParser>() {
+			@Override
+			protected SAXParser initialValue() {
+				try {
+					SAXParserFactory factory = SAXParserFactory.newInstance();
+					factory.setNamespaceAware(true);
+					factory.setFeature("http://apache.org/xml/features/nonvalidating/load-external-dtd", false);
+					factory.setFeature("http://xml.org/sax/features/external-general-entities", false);
+					factory.setFeature("http://xml.org/sax/features/external-parameter-entities", false);
+					return factory.newSAXParser();
+				} catch(Exception e) {
+					throw new RuntimeException("Error creating XML parser!", e);
+				}
+			}
+		};
+		
+		@Override
+		public String check(String query) throws Exception {
+			SAXParser parser = this.parsers.get();
+			parser.reset();
+			try {
+				parser.parse(new InputSource(new InterruptibleReader(new StringReader(query))), new InterruptibleHandler());
+				return "";
+			} catch(SAXParseException e) {
+				return "seed:" + e.getLineNumber() + ": parser error : " + e.getMessage() + "\n";
+			}
+		}
+	}
+}
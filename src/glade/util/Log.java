@@ -29,7 +29,7 @@ public class Log {
 		new File(logName).delete();
 	}
 	
-	public static void info(String s) {
+	public static synchronized void info(String s) {
 		if(logName == null) {
 			return;
 		}
@@ -45,7 +45,7 @@ public class Log {
 		}
 	}
 
-	public static void err(Exception e) {
+	public static synchronized void err(Exception e) {
 		if(verboseValue) {
 			e.printStackTrace();
 		} else {
@@ -14,15 +14,191 @@
 
 package glade.util;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
 public class OracleUtils {
 	public interface Oracle {
 		public String execute(String query);
 	}
 	
+	public static enum Verdict {
+		ACCEPT, REJECT, TIMEOUT, ERROR;
+		// only these can be cached or stored, since the others may change when the query is run again
+		public boolean isDefinite() {
+			return this == ACCEPT || this == REJECT;
+		}
+	}
+	
+	// an oracle that can decide whether the output is blank while the program is still running
+	public interface StreamingOracle extends Oracle {
+		public abstract boolean isBlank(String query);
+	}
+	
+	public static boolean isBlank(Oracle oracle, String query) {
+		return oracle instanceof StreamingOracle ? ((StreamingOracle)oracle).isBlank(query) : oracle.execute(query).matches("\\s*");
+	}
+	
+	// a piece of a query; the encoding is cached, since contexts are shared by many queries
+	public static final class Segment {
+		public final String text;
+		private byte[] bytes = null;
+		
+		public Segment(String text) {
+			this.text = text;
+		}
+		
+		public byte[] getBytes() {
+			// racing threads compute the same bytes, so the field need not be synchronized
+			byte[] bytes = this.bytes;
+			if(bytes == null) {
+				bytes = this.text.getBytes();
+				this.bytes = bytes;
+			}
+			return bytes;
+		}
+	}
+	
+	// A query made of segments, such as an example inside its context, so that oracles that
+	// write the query to a file or a pipe never concatenate it. The string is built on demand.
+	public static final class Query {
+		private final Segment[] segments;
+		private String string = null;
+		private Fingerprint fingerprint = null;
+		
+		public Query(Segment ... segments) {
+			this.segments = segments;
+		}
+		
+		public static Query of(String query) {
+			return new Query(new Segment(query));
+		}
+		
+		public int length() {
+			int length = 0;
+			for(Segment segment : this.segments) {
+				length += segment.text.length();
+			}
+			return length;
+		}
+		
+		public Fingerprint getFingerprint() {
+			if(this.fingerprint == null) {
+				FingerprintBuilder builder = new FingerprintBuilder();
+				for(Segment segment : this.segments) {
+					builder.append(segment.text);
+				}
+				this.fingerprint = builder.build();
+			}
+			return this.fingerprint;
+		}
+		
+		// gathers the encoded segments into a single write where the channel supports it
+		public void write(WritableByteChannel channel) throws IOException {
+			ByteBuffer[] buffers = new ByteBuffer[this.segments.length];
+			long remaining = 0;
+			for(int i=0; i<this.segments.length; i++) {
+				buffers[i] = ByteBuffer.wrap(this.segments[i].getBytes());
+				remaining += buffers[i].remaining();
+			}
+			if(channel instanceof GatheringByteChannel) {
+				while(remaining > 0) {
+					remaining -= ((GatheringByteChannel)channel).write(buffers);
+				}
+			} else {
+				for(ByteBuffer buffer : buffers) {
+					while(buffer.hasRemaining()) {
+						channel.write(buffer);
+					}
+				}
+			}
+		}
+		
+		@Override
+		public String toString() {
+			if(this.string == null) {
+				if(this.segments.length == 1) {
+					this.string = this.segments[0].text;
+				} else {
+					StringBuilder builder = new StringBuilder(this.length());
+					for(Segment segment : this.segments) {
+						builder.append(segment.text);
+					}
+					this.string = builder.toString();
+				}
+			}
+			return this.string;
+		}
+	}
+	
+	// a streaming oracle that can take a query without its string being built
+	public interface SegmentedOracle extends StreamingOracle {
+		public abstract boolean isBlank(Query query);
+	}
+	
+	public static boolean isBlank(Oracle oracle, Query query) {
+		return oracle instanceof SegmentedOracle ? ((SegmentedOracle)oracle).isBlank(query) : isBlank(oracle, query.toString());
+	}
+	
+	// an oracle that can tell a definite verdict from one that says nothing about the query
+	public interface VerdictOracle extends SegmentedOracle {
+		public abstract Verdict getVerdict(Query query);
+	}
+	
+	public static Verdict getVerdict(Oracle oracle, Query query) {
+		if(oracle instanceof VerdictOracle) {
+			return ((VerdictOracle)oracle).getVerdict(query);
+		}
+		return isBlank(oracle, query) ? Verdict.ACCEPT : Verdict.REJECT;
+	}
+	
 	public interface DiscriminativeOracle {
 		public abstract boolean query(String query);
 	}
 	
+	public interface SegmentedDiscriminativeOracle extends DiscriminativeOracle {
+		public abstract boolean query(Query query);
+	}
+	
+	public static boolean query(DiscriminativeOracle oracle, Query query) {
+		return oracle instanceof SegmentedDiscriminativeOracle ? ((SegmentedDiscriminativeOracle)oracle).query(query) : oracle.query(query.toString());
+	}
+	
+	// a discriminative oracle that passes on whether its verdicts are definite
+	public interface VerdictDiscriminativeOracle extends SegmentedDiscriminativeOracle {
+		public abstract Verdict queryVerdict(Query query);
+	}
+	
+	public static Verdict queryVerdict(DiscriminativeOracle oracle, Query query) {
+		if(oracle instanceof VerdictDiscriminativeOracle) {
+			return ((VerdictDiscriminativeOracle)oracle).queryVerdict(query);
+		}
+		return query(oracle, query) ? Verdict.ACCEPT : Verdict.REJECT;
+	}
+	
+	public interface AsyncDiscriminativeOracle extends SegmentedDiscriminativeOracle {
+		public abstract CompletableFuture<Boolean> submit(String query);
+		public abstract CompletableFuture<Boolean> submit(Query query);
+		public abstract List<Boolean> queryAll(List<String> queries);
+	}
+	
 	public static interface Wrapper {
 		public abstract String wrap(String input);
 	}
@@ -34,7 +210,7 @@ public class OracleUtils {
 		}
 	}
 	
-	public static class WrappedOracle implements Oracle {
+	public static class WrappedOracle implements VerdictOracle {
 		private final Oracle oracle;
 		private final Wrapper wrapper;
 		
@@ -47,6 +223,21 @@ public class OracleUtils {
 		public String execute(String query) {
 			return this.oracle.execute(this.wrapper.wrap(query));
 		}
+		
+		@Override
+		public boolean isBlank(String query) {
+			return OracleUtils.isBlank(this.oracle, this.wrapper.wrap(query));
+		}
+		
+		@Override
+		public boolean isBlank(Query query) {
+			return this.isBlank(query.toString());
+		}
+		
+		@Override
+		public Verdict getVerdict(Query query) {
+			return OracleUtils.getVerdict(this.oracle, Query.of(this.wrapper.wrap(query.toString())));
+		}
 	}
 	
     public static class WrappedDiscriminativeOracle implements DiscriminativeOracle {
@@ -63,4 +254,380 @@ public class OracleUtils {
                 return this.oracle.query(this.wrapper.wrap(query));
         }
     }
+	
+	// 128-bit hash of a query, so that cached queries do not retain the query strings
+	public static final class Fingerprint {
+		private static final long SEED_HI = 0x9e3779b97f4a7c15L;
+		private static final long SEED_LO = 0xc2b2ae3d27d4eb4fL;
+		private static final long PRIME_HI = 0x100000001b3L;
+		private static final long PRIME_LO = 0x87c37b91114253d5L;
+		
+		public final long hi;
+		public final long lo;
+		
+		public Fingerprint(long hi, long lo) {
+			this.hi = hi;
+			this.lo = lo;
+		}
+		
+		public static Fingerprint of(CharSequence query) {
+			return new FingerprintBuilder().append(query).build();
+		}
+		
+		@Override
+		public boolean equals(Object other) {
+			if(!(other instanceof Fingerprint)) {
+				return false;
+			}
+			Fingerprint fingerprint = (Fingerprint)other;
+			return this.hi == fingerprint.hi && this.lo == fingerprint.lo;
+		}
+		
+		@Override
+		public int hashCode() {
+			return (int)(this.lo ^ (this.lo >>> 32));
+		}
+		
+		@Override
+		public String toString() {
+			return String.format("%016x%016x", this.hi, this.lo);
+		}
+	}
+	
+	// incremental, so a query split into pieces hashes the same as the concatenated query
+	public static final class FingerprintBuilder {
+		private long hi = Fingerprint.SEED_HI;
+		private long lo = Fingerprint.SEED_LO;
+		private long length = 0;
+		
+		public FingerprintBuilder append(CharSequence query) {
+			for(int i=0; i<query.length(); i++) {
+				char c = query.charAt(i);
+				this.hi = (this.hi ^ c) * Fingerprint.PRIME_HI;
+				this.lo = Long.rotateLeft(this.lo ^ (c * Fingerprint.PRIME_LO), 31) * 5 + 0x52dce729;
+			}
+			this.length += query.length();
+			return this;
+		}
+		
+		public Fingerprint build() {
+			long h1 = this.hi ^ this.length;
+			long h2 = this.lo ^ this.length;
+			h1 += h2;
+			h2 += h1;
+			h1 = mix(h1);
+			h2 = mix(h2);
+			h1 += h2;
+			h2 += h1;
+			return new Fingerprint(h1, h2);
+		}
+		
+		private static long mix(long h) {
+			h ^= h >>> 33;
+			h *= 0xff51afd7ed558ccdL;
+			h ^= h >>> 33;
+			h *= 0xc4ceb9fe1a85ec53L;
+			h ^= h >>> 33;
+			return h;
+		}
+	}
+	
+	// only definite verdicts are cached, so a query that timed out is run again when it comes back
+	public static class CachedDiscriminativeOracle implements VerdictDiscriminativeOracle {
+		// rough heap cost of one cached verdict (map entry, key, and key fields)
+		public static final long ENTRY_BYTES = 96;
+		
+		private final DiscriminativeOracle oracle;
+		private final Stripe[] stripes;
+		private final AtomicLong hits = new AtomicLong();
+		private final AtomicLong misses = new AtomicLong();
+		
+		public CachedDiscriminativeOracle(DiscriminativeOracle oracle, long maxBytes, int numStripes) {
+			if(maxBytes < ENTRY_BYTES || numStripes <= 0) {
+				throw new RuntimeException("Invalid cache parameters: " + maxBytes + " bytes, " + numStripes + " stripes");
+			}
+			this.oracle = oracle;
+			this.stripes = new Stripe[numStripes];
+			int maxEntries = (int)Math.min(Integer.MAX_VALUE, Math.max(1, maxBytes / ENTRY_BYTES / numStripes));
+			for(int i=0; i<numStripes; i++) {
+				this.stripes[i] = new Stripe(maxEntries);
+			}
+		}
+		
+		private Stripe getStripe(Fingerprint fingerprint) {
+			return this.stripes[(int)((fingerprint.hi >>> 1) % this.stripes.length)];
+		}
+		
+		@Override
+		public boolean query(String query) {
+			return this.query(Query.of(query));
+		}
+		
+		@Override
+		public boolean query(Query query) {
+			return this.queryVerdict(query) == Verdict.ACCEPT;
+		}
+		
+		@Override
+		public Verdict queryVerdict(Query query) {
+			Fingerprint fingerprint = query.getFingerprint();
+			Stripe stripe = this.getStripe(fingerprint);
+			Boolean result;
+			synchronized(stripe) {
+				result = stripe.get(fingerprint);
+			}
+			if(result != null) {
+				this.hits.incrementAndGet();
+				return result ? Verdict.ACCEPT : Verdict.REJECT;
+			}
+			this.misses.incrementAndGet();
+			Verdict verdict = OracleUtils.queryVerdict(this.oracle, query);
+			if(verdict.isDefinite()) {
+				synchronized(stripe) {
+					stripe.put(fingerprint, verdict == Verdict.ACCEPT);
+				}
+			}
+			return verdict;
+		}
+		
+		public long getHits() {
+			return this.hits.get();
+		}
+		
+		public long getMisses() {
+			return this.misses.get();
+		}
+		
+		public int size() {
+			int size = 0;
+			for(Stripe stripe : this.stripes) {
+				synchronized(stripe) {
+					size += stripe.size();
+				}
+			}
+			return size;
+		}
+		
+		@Override
+		public String toString() {
+			return "hits: " + this.getHits() + ", misses: " + this.getMisses() + ", entries: " + this.size() + ", " + this.oracle;
+		}
+		
+		private static class Stripe extends LinkedHashMap<Fingerprint,Boolean> {
+			private static final long serialVersionUID = 4079410652383517211L;
+			private final int maxEntries;
+			private Stripe(int maxEntries) {
+				super(16, 0.75f, true);
+				this.maxEntries = maxEntries;
+			}
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Fingerprint,Boolean> eldest) {
+				return this.size() > this.maxEntries;
+			}
+		}
+	}
+	
+	// a cheap check that can only tell that a query is invalid, never that it is valid
+	public static interface Rejecter {
+		public abstract boolean isRejected(String query);
+	}
+	
+	// Runs the rejecters in order, and forwards only the queries that pass all of them to the
+	// oracle, which alone accepts queries. This is only sound if the rejecters never reject a
+	// query the oracle would accept.
+	public static class CascadeDiscriminativeOracle implements SegmentedDiscriminativeOracle {
+		private final List<Rejecter> rejecters;
+		private final DiscriminativeOracle oracle;
+		private final AtomicLong[] rejections;
+		private final AtomicLong forwarded = new AtomicLong();
+		private final AtomicLong accepted = new AtomicLong();
+		
+		public CascadeDiscriminativeOracle(List<Rejecter> rejecters, DiscriminativeOracle oracle) {
+			this.rejecters = new ArrayList<Rejecter>(rejecters);
+			this.oracle = oracle;
+			this.rejections = new AtomicLong[rejecters.size()];
+			for(int i=0; i<rejecters.size(); i++) {
+				this.rejections[i] = new AtomicLong();
+			}
+		}
+		
+		@Override
+		public boolean query(String query) {
+			return this.query(Query.of(query));
+		}
+		
+		@Override
+		public boolean query(Query query) {
+			for(int i=0; i<this.rejecters.size(); i++) {
+				if(this.rejecters.get(i).isRejected(query.toString())) {
+					this.rejections[i].incrementAndGet();
+					return false;
+				}
+			}
+			this.forwarded.incrementAndGet();
+			boolean result = OracleUtils.query(this.oracle, query);
+			if(result) {
+				this.accepted.incrementAndGet();
+			}
+			return result;
+		}
+		
+		public long getRejections(int stage) {
+			return this.rejections[stage].get();
+		}
+		
+		public long getForwarded() {
+			return this.forwarded.get();
+		}
+		
+		public long getAccepted() {
+			return this.accepted.get();
+		}
+		
+		@Override
+		public String toString() {
+			StringBuilder sb = new StringBuilder();
+			for(int i=0; i<this.rejecters.size(); i++) {
+				sb.append("rejected by stage ").append(i).append(": ").append(this.getRejections(i)).append(", ");
+			}
+			sb.append("forwarded: ").append(this.getForwarded()).append(", accepted: ").append(this.getAccepted());
+			return sb.append(", ").append(this.oracle).toString();
+		}
+	}
+	
+	public static ThreadFactory getDaemonThreadFactory(final String name) {
+		return new ThreadFactory() {
+			private final AtomicLong count = new AtomicLong();
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, name + "-" + this.count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+	}
+	
+	// the given oracle must be safe to call from several threads at once
+	public static class ConcurrentDiscriminativeOracle implements AsyncDiscriminativeOracle {
+		private final DiscriminativeOracle oracle;
+		private final ExecutorService executor;
+		
+		public ConcurrentDiscriminativeOracle(DiscriminativeOracle oracle, int numThreads) {
+			this.oracle = oracle;
+			ThreadPoolExecutor executor = new ThreadPoolExecutor(numThreads, numThreads, 1, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), getDaemonThreadFactory("glade-query"));
+			executor.allowCoreThreadTimeOut(true);
+			this.executor = executor;
+		}
+		
+		@Override
+		public boolean query(String query) {
+			return this.oracle.query(query);
+		}
+		
+		@Override
+		public boolean query(Query query) {
+			return OracleUtils.query(this.oracle, query);
+		}
+		
+		@Override
+		public CompletableFuture<Boolean> submit(String query) {
+			return this.submit(Query.of(query));
+		}
+		
+		@Override
+		public CompletableFuture<Boolean> submit(final Query query) {
+			final QueryFuture result = new QueryFuture();
+			result.task = this.executor.submit(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						result.complete(OracleUtils.query(oracle, query));
+					} catch(Throwable e) {
+						result.completeExceptionally(e);
+					}
+				}
+			});
+			return result;
+		}
+		
+		@Override
+		public List<Boolean> queryAll(List<String> queries) {
+			List<CompletableFuture<Boolean>> futures = new ArrayList<CompletableFuture<Boolean>>();
+			for(String query : queries) {
+				futures.add(this.submit(query));
+			}
+			List<Boolean> results = new ArrayList<Boolean>();
+			for(CompletableFuture<Boolean> future : futures) {
+				results.add(getResult(future));
+			}
+			return results;
+		}
+		
+		@Override
+		public String toString() {
+			return this.oracle.toString();
+		}
+		
+		// cancelling also interrupts the running query, which kills the process it is waiting on
+		private static class QueryFuture extends CompletableFuture<Boolean> {
+			private volatile Future<?> task;
+			@Override
+			public boolean cancel(boolean mayInterruptIfRunning) {
+				boolean isCancelled = super.cancel(mayInterruptIfRunning);
+				if(this.task != null) {
+					this.task.cancel(true);
+				}
+				return isCancelled;
+			}
+		}
+	}
+	
+	private static boolean getResult(Future<Boolean> future) {
+		try {
+			return future.get();
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while waiting for query!", e);
+		} catch(ExecutionException e) {
+			throw new RuntimeException("Error executing query!", e.getCause());
+		}
+	}
+	
+	// runs all queries at once, and cancels the outstanding ones as soon as one is rejected
+	public static boolean isAllAccepted(AsyncDiscriminativeOracle oracle, List<Query> queries) {
+		return getRejected(oracle, queries) == -1;
+	}
+	
+	// the index of the first query found to be rejected, or -1 if all queries are accepted
+	public static int getRejected(AsyncDiscriminativeOracle oracle, List<Query> queries) {
+		final BlockingQueue<Integer> completed = new LinkedBlockingQueue<Integer>();
+		List<CompletableFuture<Boolean>> futures = new ArrayList<CompletableFuture<Boolean>>();
+		try {
+			for(int i=0; i<queries.size(); i++) {
+				final int index = i;
+				CompletableFuture<Boolean> future = oracle.submit(queries.get(i));
+				future.whenComplete(new BiConsumer<Boolean,Throwable>() {
+					@Override
+					public void accept(Boolean result, Throwable error) {
+						completed.add(index);
+					}
+				});
+				futures.add(future);
+			}
+			for(int i=0; i<futures.size(); i++) {
+				int index = completed.take();
+				if(!getResult(futures.get(index))) {
+					return index;
+				}
+			}
+			return -1;
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while waiting for queries!", e);
+		} finally {
+			for(CompletableFuture<Boolean> future : futures) {
+				future.cancel(true);
+			}
+		}
+	}
 }
@@ -14,20 +14,49 @@
 
 package glade.util;
 
-import glade.util.OracleUtils.DiscriminativeOracle;
 import glade.util.OracleUtils.Oracle;
+import glade.util.OracleUtils.Query;
+import glade.util.OracleUtils.Verdict;
+import glade.util.OracleUtils.VerdictDiscriminativeOracle;
+import glade.util.OracleUtils.VerdictOracle;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class ShellUtils {
 	public static void delete(String filename) {
@@ -49,6 +78,21 @@ public class ShellUtils {
 		write(query, new File(filename));
 	}
 	
+	public static void write(Query query, String filename) {
+		File file = new File(filename);
+		file.delete();
+		try {
+			FileOutputStream output = new FileOutputStream(file);
+			try {
+				query.write(output.getChannel());
+			} finally {
+				output.close();
+			}
+		} catch(IOException e) {
+			throw new RuntimeException("Error writing seed file!", e);
+		}
+	}
+	
 	public static String read(InputStream input) {
 		try {
 			StringBuilder result = new StringBuilder();
@@ -73,40 +117,197 @@ public class ShellUtils {
 		}
 	}
 	
-	public static String executeForStream(final String command, final boolean isError, long timeoutMillis) {
-		final Process process = executeNoWait(command);
-		Callable<String> exec = new Callable<String>() {
-			public String call() {
-				String result = read(isError ? process.getErrorStream() : process.getInputStream());
-				try {
+	private static Process executeDiscardingOutput(String command) {
+		try {
+			ProcessBuilder builder = new ProcessBuilder("/bin/sh", "-c", command);
+			builder.redirectOutput(ProcessBuilder.Redirect.DISCARD);
+			builder.redirectError(ProcessBuilder.Redirect.DISCARD);
+			return builder.start();
+		} catch(Exception e) {
+			throw new RuntimeException("Error executing command: " + command, e);
+		}
+	}
+	
+	public static String executeForStream(String command, boolean isError, long timeoutMillis) {
+		return waitForStream(executeNoWait(command), command, isError, timeoutMillis);
+	}
+	
+	public static String waitForStream(Process process, String command, boolean isError, long timeoutMillis) {
+		return ProcessSupervisor.supervise(process, command, isError, timeoutMillis);
+	}
+	
+	// Supervises all target processes of the JVM: a shared pool of reader threads drains both
+	// output streams of every process, and a single timer thread enforces all timeouts by
+	// forcibly killing the whole process tree.
+	public static class ProcessSupervisor {
+		private static final ThreadPoolExecutor readers = (ThreadPoolExecutor)Executors.newCachedThreadPool(OracleUtils.getDaemonThreadFactory("glade-reader"));
+		private static final ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, OracleUtils.getDaemonThreadFactory("glade-timer"));
+		private static final AtomicInteger runningProcesses = new AtomicInteger();
+		static {
+			timer.setRemoveOnCancelPolicy(true);
+		}
+		
+		private static interface OutputReader<T> {
+			public abstract T read(InputStream output, Process process) throws IOException, InterruptedException;
+		}
+		
+		public static String supervise(Process process, String command, boolean isError, long timeoutMillis) {
+			return supervise(process, command, isError, timeoutMillis, new OutputReader<String>() {
+				@Override
+				public String read(InputStream output, Process process) throws InterruptedException {
+					String result = ShellUtils.read(output);
 					process.waitFor();
-				} catch (InterruptedException e) {
-					throw new RuntimeException("Error executing command: " + command, e);
+					return result;
 				}
-				return result;
+			}, "Timeout!");
+		}
+		
+		public static boolean superviseBlank(Process process, String command, boolean isError, long timeoutMillis) {
+			return superviseVerdict(process, command, isError, timeoutMillis) == Verdict.ACCEPT;
+		}
+		
+		// rejects (and kills the process) as soon as the output contains a character matching \S
+		public static Verdict superviseVerdict(Process process, String command, boolean isError, long timeoutMillis) {
+			return supervise(process, command, isError, timeoutMillis, new OutputReader<Verdict>() {
+				@Override
+				public Verdict read(InputStream output, Process process) throws IOException, InterruptedException {
+					byte[] buffer = new byte[4096];
+					int length;
+					while((length = output.read(buffer)) != -1) {
+						for(int i=0; i<length; i++) {
+							if(!isWhitespace(buffer[i])) {
+								destroyTree(process);
+								return Verdict.REJECT;
+							}
+						}
+					}
+					output.close();
+					process.waitFor();
+					return Verdict.ACCEPT;
+				}
+			}, Verdict.TIMEOUT);
+		}
+		
+		private static boolean isWhitespace(byte b) {
+			return b == ' ' || b == '\t' || b == '\n' || b == 0x0B || b == '\f' || b == '\r';
+		}
+		
+		private static <T> T supervise(final Process process, final String command, final boolean isError, long timeoutMillis, final OutputReader<T> reader, final T timeoutResult) {
+			runningProcesses.incrementAndGet();
+			final CompletableFuture<T> result = new CompletableFuture<T>();
+			readers.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						result.complete(reader.read(isError ? process.getErrorStream() : process.getInputStream(), process));
+					} catch(Throwable e) {
+						result.completeExceptionally(e);
+					}
+				}
+			});
+			readers.execute(new Runnable() {
+				@Override
+				public void run() {
+					drain(isError ? process.getInputStream() : process.getErrorStream());
+				}
+			});
+			ScheduledFuture<?> timeout = null;
+			if(timeoutMillis != -1) {
+				timeout = timer.schedule(new Runnable() {
+					@Override
+					public void run() {
+						if(result.complete(timeoutResult)) {
+							destroyTree(process);
+						}
+					}
+				}, timeoutMillis, TimeUnit.MILLISECONDS);
 			}
-		};
-		if(timeoutMillis == -1) {
 			try {
-				return exec.call();
-			} catch (Exception e) {
-				throw new RuntimeException("Error executing command: " + command, e);
+				return result.get();
+			} catch(InterruptedException e) {
+				// a cancelled query has no verdict, so it must not look like a timeout
+				destroyTree(process);
+				Thread.currentThread().interrupt();
+				throw new RuntimeException("Interrupted while executing command: " + command, e);
+			} catch(ExecutionException e) {
+				destroyTree(process);
+				throw new RuntimeException("Error executing command: " + command, e.getCause());
+			} finally {
+				if(timeout != null) {
+					timeout.cancel(false);
+				}
+				runningProcesses.decrementAndGet();
 			}
-		} else {
-			final ExecutorService executor = Executors.newSingleThreadExecutor();
-			final Future<String> future = executor.submit(exec);
-			executor.shutdown();
-			String result;
+		}
+		
+		// returns the exit code, or null if the process timed out
+		public static Integer superviseExit(Process process, String command, long timeoutMillis) {
+			runningProcesses.incrementAndGet();
 			try {
-				result = future.get(timeoutMillis, TimeUnit.MILLISECONDS);
-			} catch(Exception e) {
-				process.destroy();
-				result = "Timeout!";
+				if(timeoutMillis == -1) {
+					return process.waitFor();
+				} else if(process.waitFor(timeoutMillis, TimeUnit.MILLISECONDS)) {
+					return process.exitValue();
+				} else {
+					destroyTree(process);
+					return null;
+				}
+			} catch(InterruptedException e) {
+				destroyTree(process);
+				Thread.currentThread().interrupt();
+				throw new RuntimeException("Interrupted while executing command: " + command, e);
+			} finally {
+				runningProcesses.decrementAndGet();
 			}
-			if(!executor.isTerminated()) {
-			    executor.shutdownNow();
+		}
+		
+		// writes the input from a reader thread, so a target that writes a lot of output before
+		// reading all of its input cannot deadlock with the caller
+		public static void feed(final Process process, final Query query) {
+			readers.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						OutputStream stdin = process.getOutputStream();
+						query.write(Channels.newChannel(stdin));
+						stdin.close();
+					} catch(IOException e) {
+						// the target exited without reading all of its input, so only its output matters
+					}
+				}
+			});
+		}
+		
+		public static void destroyTree(Process process) {
+			Iterator<ProcessHandle> descendants = process.descendants().iterator();
+			while(descendants.hasNext()) {
+				descendants.next().destroyForcibly();
 			}
-			return result;
+			process.destroyForcibly();
+		}
+		
+		private static void drain(InputStream input) {
+			byte[] buffer = new byte[8192];
+			try {
+				while(input.read(buffer) != -1) {}
+				input.close();
+			} catch(IOException e) {}
+		}
+		
+		public static int getRunningProcesses() {
+			return runningProcesses.get();
+		}
+		
+		public static int getPendingTimeouts() {
+			return timer.getQueue().size();
+		}
+		
+		public static int getActiveReaders() {
+			return readers.getActiveCount();
+		}
+		
+		public static int getQueuedReaders() {
+			return readers.getQueue().size();
 		}
 	}
 	
@@ -121,34 +322,876 @@ public class ShellUtils {
 		}
 	}
 	
-	public static class ShellOracle implements Oracle {
-		private final String command;
+	// How a query reaches the target: written to a file, or streamed through a pipe on stdin,
+	// where the command is given "-" as the filename (or /dev/fd/0, for programs that insist on
+	// opening a named file). The JVM cannot create memfd files, so the latter is pipe-backed, and
+	// targets that seek in their input should use files in a tmpfs scratch directory instead.
+	public static enum Delivery {
+		FILE, STDIN, DEV_FD;
+		public String getFilename(String filename) {
+			switch(this) {
+			case FILE:
+				return filename;
+			case STDIN:
+				return "-";
+			case DEV_FD:
+				return "/dev/fd/0";
+			default:
+				throw new RuntimeException("Invalid delivery!");
+			}
+		}
+	}
+	
+	// Learns the timeout for a target from the latencies of its completed runs, as a high
+	// quantile of a decaying histogram times a safety factor. The configured timeout is used
+	// until enough runs complete; afterwards the timeout can fall to a fraction of it for a
+	// fast target, or rise to a multiple of it when the machine is loaded.
+	public static class AdaptiveTimeout {
+		private static final int BUCKETS_PER_OCTAVE = 8;
+		private static final int NUM_BUCKETS = 24 * BUCKETS_PER_OCTAVE;
+		private static final int MIN_SAMPLES = 32;
+		private static final int DECAY_SAMPLES = 1024;
+		private static final double QUANTILE = 0.99;
+		private static final double SAFETY_FACTOR = 4.0;
+		private static final double RETRY_FACTOR = 2.0;
+		private static final long RANGE_FACTOR = 8;
+		
+		private final long timeoutMillis;
+		private final long[] counts = new long[NUM_BUCKETS];
+		private long numSamples = 0;
+		private long numDecaySamples = 0;
+		private long numRetries = 0;
+		private long numTimeouts = 0;
+		
+		public AdaptiveTimeout(long timeoutMillis) {
+			this.timeoutMillis = timeoutMillis;
+		}
+		
+		public synchronized void record(long nanos) {
+			double millis = nanos / 1e6;
+			int bucket = millis <= 1.0 ? 0 : (int)Math.min(NUM_BUCKETS - 1, Math.log(millis) / Math.log(2.0) * BUCKETS_PER_OCTAVE);
+			this.counts[bucket]++;
+			this.numSamples++;
+			// halving all counts now and then lets the timeout follow changes in load
+			if(++this.numDecaySamples == DECAY_SAMPLES) {
+				this.numSamples = 0;
+				for(int i=0; i<NUM_BUCKETS; i++) {
+					this.counts[i] /= 2;
+					this.numSamples += this.counts[i];
+				}
+				this.numDecaySamples = 0;
+			}
+		}
+		
+		public synchronized void recordRetry(boolean isTimeout) {
+			this.numRetries++;
+			if(isTimeout) {
+				this.numTimeouts++;
+			}
+		}
+		
+		public synchronized long getTimeoutMillis() {
+			if(this.timeoutMillis == -1 || this.numSamples < MIN_SAMPLES) {
+				return this.timeoutMillis;
+			}
+			long count = 0;
+			int bucket = 0;
+			while(bucket < NUM_BUCKETS - 1 && (count += this.counts[bucket]) < QUANTILE * this.numSamples) {
+				bucket++;
+			}
+			long quantileMillis = (long)Math.ceil(Math.pow(2.0, (bucket + 1.0) / BUCKETS_PER_OCTAVE));
+			return this.clamp((long)(SAFETY_FACTOR * quantileMillis));
+		}
+		
+		// the budget for a second run of a query that timed out
+		public long getRetryTimeoutMillis(long timeoutMillis) {
+			return timeoutMillis == -1 ? -1 : this.clamp((long)(RETRY_FACTOR * timeoutMillis));
+		}
+		
+		private long clamp(long timeoutMillis) {
+			return Math.max(this.timeoutMillis / RANGE_FACTOR, Math.min(this.timeoutMillis * RANGE_FACTOR, timeoutMillis));
+		}
+		
+		@Override
+		public synchronized String toString() {
+			return "timeout: " + this.getTimeoutMillis() + " ms, samples: " + this.numSamples + ", retries: " + this.numRetries + ", timeouts: " + this.numTimeouts;
+		}
+	}
+	
+	// an oracle that runs the command once per query, in its own scratch directory
+	public static abstract class ScratchOracle implements VerdictOracle {
+		protected final String command;
+		protected final long timeoutMillis;
 		private final String filename;
 		private final String auxFilename;
+		private final Delivery delivery;
+		private final boolean isAuxUsed;
+		private final AdaptiveTimeout adaptiveTimeout;
+		
+		protected ScratchOracle(String filename, String auxFilename, String command, Delivery delivery, long timeoutMillis, AdaptiveTimeout adaptiveTimeout) {
+			this.filename = filename;
+			this.auxFilename = auxFilename;
+			this.command = command;
+			this.delivery = delivery;
+			this.timeoutMillis = timeoutMillis;
+			this.isAuxUsed = command.contains(auxFilename);
+			this.adaptiveTimeout = adaptiveTimeout;
+		}
+		
+		protected abstract Verdict getVerdict(Query query, long timeoutMillis);
+		
+		// the current timeout, which is the adaptive one if there is one
+		protected long getTimeoutMillis() {
+			return this.adaptiveTimeout == null ? this.timeoutMillis : this.adaptiveTimeout.getTimeoutMillis();
+		}
+		
+		// with an adaptive timeout, a query that times out is run once more with a longer budget
+		@Override
+		public Verdict getVerdict(Query query) {
+			if(this.adaptiveTimeout == null) {
+				return this.getVerdict(query, this.timeoutMillis);
+			}
+			long timeoutMillis = this.adaptiveTimeout.getTimeoutMillis();
+			long start = System.nanoTime();
+			Verdict verdict = this.getVerdict(query, timeoutMillis);
+			if(verdict == Verdict.TIMEOUT) {
+				start = System.nanoTime();
+				verdict = this.getVerdict(query, this.adaptiveTimeout.getRetryTimeoutMillis(timeoutMillis));
+				this.adaptiveTimeout.recordRetry(verdict == Verdict.TIMEOUT);
+			}
+			if(verdict != Verdict.TIMEOUT) {
+				this.adaptiveTimeout.record(System.nanoTime() - start);
+			}
+			return verdict;
+		}
+		
+		@Override
+		public boolean isBlank(String query) {
+			return this.isBlank(Query.of(query));
+		}
+		
+		@Override
+		public boolean isBlank(Query query) {
+			return this.getVerdict(query) == Verdict.ACCEPT;
+		}
+		
+		protected Process start(Query query, boolean isOutputDiscarded) {
+			if(this.isAuxUsed) {
+				write("", this.auxFilename);
+			}
+			if(this.delivery == Delivery.FILE) {
+				write(query, this.filename);
+			}
+			Process process = isOutputDiscarded ? executeDiscardingOutput(this.command) : executeNoWait(this.command);
+			if(this.delivery != Delivery.FILE) {
+				ProcessSupervisor.feed(process, query);
+			}
+			return process;
+		}
+		
+		protected void finish() {
+			if(this.isAuxUsed) {
+				delete(this.auxFilename);
+			}
+			if(this.delivery == Delivery.FILE) {
+				delete(this.filename);
+			}
+		}
+	}
+	
+	public static class ShellOracle extends ScratchOracle {
 		private final boolean isError;
-		private final long timeoutMillis;
+		
+		public ShellOracle(String filename, String auxFilename, String command, boolean isError, long timeoutMillis, Delivery delivery, AdaptiveTimeout adaptiveTimeout) {
+			super(filename, auxFilename, command, delivery, timeoutMillis, adaptiveTimeout);
+			this.isError = isError;
+		}
+		
+		public ShellOracle(String filename, String auxFilename, String command, boolean isError, long timeoutMillis, Delivery delivery) {
+			this(filename, auxFilename, command, isError, timeoutMillis, delivery, null);
+		}
 		
 		public ShellOracle(String filename, String auxFilename, String command, boolean isError, long timeoutMillis) {
+			this(filename, auxFilename, command, isError, timeoutMillis, Delivery.FILE);
+		}
+		
+		@Override
+		public String execute(String query) {
+			try {
+				return waitForStream(this.start(Query.of(query), false), this.command, this.isError, this.getTimeoutMillis());
+			} finally {
+				this.finish();
+			}
+		}
+		
+		@Override
+		protected Verdict getVerdict(Query query, long timeoutMillis) {
+			try {
+				return ProcessSupervisor.superviseVerdict(this.start(query, false), this.command, this.isError, timeoutMillis);
+			} finally {
+				this.finish();
+			}
+		}
+	}
+	
+	// per-worker scratch directories, preferably on tmpfs, so that concurrent queries never share files
+	public static File createScratchDirectory(String scratchPath) {
+		try {
+			File dir = java.nio.file.Files.createTempDirectory(new File(scratchPath).toPath(), "glade-").toFile();
+			dir.deleteOnExit();
+			return dir;
+		} catch(IOException e) {
+			throw new RuntimeException("Error creating scratch directory in: " + scratchPath, e);
+		}
+	}
+	
+	// hands each query to a free worker; the workers must not share any files or processes
+	public static class PooledOracle implements VerdictOracle {
+		private final BlockingQueue<Oracle> workers;
+		
+		public PooledOracle(List<? extends Oracle> workers) {
+			this.workers = new ArrayBlockingQueue<Oracle>(workers.size(), false, workers);
+		}
+		
+		private Oracle take() {
+			try {
+				return this.workers.take();
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException("Interrupted while waiting for a worker!", e);
+			}
+		}
+		
+		@Override
+		public String execute(String query) {
+			Oracle worker = this.take();
+			try {
+				return worker.execute(query);
+			} finally {
+				this.workers.add(worker);
+			}
+		}
+		
+		@Override
+		public boolean isBlank(String query) {
+			Oracle worker = this.take();
+			try {
+				return OracleUtils.isBlank(worker, query);
+			} finally {
+				this.workers.add(worker);
+			}
+		}
+		
+		@Override
+		public boolean isBlank(Query query) {
+			Oracle worker = this.take();
+			try {
+				return OracleUtils.isBlank(worker, query);
+			} finally {
+				this.workers.add(worker);
+			}
+		}
+		
+		@Override
+		public Verdict getVerdict(Query query) {
+			Oracle worker = this.take();
+			try {
+				return OracleUtils.getVerdict(worker, query);
+			} finally {
+				this.workers.add(worker);
+			}
+		}
+	}
+	
+	public static class PooledShellOracle extends PooledOracle {
+		// the workers share the adaptive timeout, which may be null for a fixed timeout
+		public PooledShellOracle(CommandFactory factory, String exePath, String filename, String auxFilename, boolean isError, long timeoutMillis, String scratchPath, int numWorkers, Delivery delivery, AdaptiveTimeout adaptiveTimeout) {
+			super(getWorkers(factory, exePath, filename, auxFilename, isError, timeoutMillis, scratchPath, numWorkers, delivery, adaptiveTimeout));
+		}
+		
+		public PooledShellOracle(CommandFactory factory, String exePath, String filename, String auxFilename, boolean isError, long timeoutMillis, String scratchPath, int numWorkers, Delivery delivery) {
+			this(factory, exePath, filename, auxFilename, isError, timeoutMillis, scratchPath, numWorkers, delivery, null);
+		}
+		
+		public PooledShellOracle(CommandFactory factory, String exePath, String filename, String auxFilename, boolean isError, long timeoutMillis, String scratchPath, int numWorkers) {
+			this(factory, exePath, filename, auxFilename, isError, timeoutMillis, scratchPath, numWorkers, Delivery.FILE);
+		}
+		
+		private static List<ShellOracle> getWorkers(CommandFactory factory, String exePath, String filename, String auxFilename, boolean isError, long timeoutMillis, String scratchPath, int numWorkers, Delivery delivery, AdaptiveTimeout adaptiveTimeout) {
+			List<ShellOracle> workers = new ArrayList<ShellOracle>();
+			for(int i=0; i<numWorkers; i++) {
+				File dir = createScratchDirectory(scratchPath);
+				String workerFilename = new File(dir, filename).getPath();
+				String workerAuxFilename = new File(dir, auxFilename).getPath();
+				String command = factory.getCommand(delivery.getFilename(workerFilename), workerAuxFilename, exePath);
+				workers.add(new ShellOracle(workerFilename, workerAuxFilename, command, isError, timeoutMillis, delivery, adaptiveTimeout));
+			}
+			return workers;
+		}
+	}
+	
+	// a command factory for targets that can check many files in one invocation
+	public static interface BatchCommandFactory extends CommandFactory {
+		public abstract String getBatchCommand(List<String> filenames, String auxFilename, String exePath);
+	}
+	
+	public static class SimpleBatchCommandFactory extends SimpleCommandFactory implements BatchCommandFactory {
+		@Override
+		public String getBatchCommand(List<String> filenames, String auxFilename, String exePath) {
+			StringBuilder command = new StringBuilder(exePath);
+			for(String filename : filenames) {
+				command.append(" ").append(filename);
+			}
+			return command.toString();
+		}
+	}
+	
+	// Maps the output and exit code of a batch back to its files: true if the file is valid,
+	// false if it is invalid, and null if the target gave no verdict for it. Returns null if
+	// the output cannot be attributed to the files at all.
+	public static interface BatchVerdictParser {
+		public abstract List<Boolean> getVerdicts(String output, int exitCode, List<String> filenames);
+	}
+	
+	// Attributes every output line to the file most recently mentioned in the output, so
+	// multiline messages (such as Python tracebacks) count against the right file. Targets
+	// that stop at the first invalid file give no verdict for the files after it.
+	public static class FilenameVerdictParser implements BatchVerdictParser {
+		private final boolean isStoppedByError;
+		
+		public FilenameVerdictParser(boolean isStoppedByError) {
+			this.isStoppedByError = isStoppedByError;
+		}
+		
+		@Override
+		public List<Boolean> getVerdicts(String output, int exitCode, List<String> filenames) {
+			List<Boolean> verdicts = new ArrayList<Boolean>();
+			for(int i=0; i<filenames.size(); i++) {
+				verdicts.add(true);
+			}
+			int cur = -1;
+			int last = -1;
+			for(String line : output.split("\n")) {
+				for(int i=0; i<filenames.size(); i++) {
+					if(line.contains(filenames.get(i))) {
+						cur = i;
+					}
+				}
+				if(line.trim().isEmpty()) {
+					continue;
+				}
+				if(cur == -1) {
+					return null;
+				}
+				verdicts.set(cur, false);
+				last = Math.max(last, cur);
+			}
+			if(exitCode != 0 && last == -1) {
+				return null;
+			}
+			if(this.isStoppedByError && last != -1) {
+				for(int i=last+1; i<filenames.size(); i++) {
+					verdicts.set(i, null);
+				}
+			}
+			return verdicts;
+		}
+	}
+	
+	// Packs the queries pending from concurrent callers into batches of up to the given size,
+	// and checks each batch in one invocation of the target. A caller that finds a free worker
+	// runs a batch of whatever is pending, its own query included if it has not been taken yet.
+	// Queries the batch gives no verdict for are retried, and single queries are checked just as
+	// the shell oracle would, by the blankness of the output.
+	public static class BatchShellOracle implements VerdictOracle {
+		private final BatchCommandFactory factory;
+		private final BatchVerdictParser parser;
+		private final String exePath;
+		private final String filename;
+		private final String auxFilename;
+		private final boolean isError;
+		private final long timeoutMillis;
+		private final int batchSize;
+		private final BlockingQueue<File> workers;
+		private final List<PendingQuery> pending = new ArrayList<PendingQuery>();
+		
+		public BatchShellOracle(BatchCommandFactory factory, BatchVerdictParser parser, String exePath, String filename, String auxFilename, boolean isError, long timeoutMillis, String scratchPath, int numWorkers, int batchSize) {
+			this.factory = factory;
+			this.parser = parser;
+			this.exePath = exePath;
 			this.filename = filename;
 			this.auxFilename = auxFilename;
-			this.command = command;
 			this.isError = isError;
 			this.timeoutMillis = timeoutMillis;
+			this.batchSize = batchSize;
+			this.workers = new ArrayBlockingQueue<File>(numWorkers);
+			for(int i=0; i<numWorkers; i++) {
+				this.workers.add(createScratchDirectory(scratchPath));
+			}
+		}
+		
+		private static class PendingQuery {
+			private final Query query;
+			private final CompletableFuture<Verdict> verdict = new CompletableFuture<Verdict>();
+			private PendingQuery(Query query) {
+				this.query = query;
+			}
 		}
 		
 		@Override
 		public String execute(String query) {
-			write("", this.auxFilename);
-			write(query, this.filename);
-			String result = ShellUtils.executeForStream(this.command, this.isError, this.timeoutMillis);
-			delete(this.auxFilename);
-			delete(this.filename);
-			return result;
+			return this.isBlank(query) ? "" : "Rejected in batch!";
+		}
+		
+		@Override
+		public boolean isBlank(String query) {
+			return this.isBlank(Query.of(query));
+		}
+		
+		@Override
+		public boolean isBlank(Query query) {
+			return this.getVerdict(query) == Verdict.ACCEPT;
+		}
+		
+		@Override
+		public Verdict getVerdict(Query query) {
+			PendingQuery pendingQuery = new PendingQuery(query);
+			synchronized(this.pending) {
+				this.pending.add(pendingQuery);
+			}
+			while(!pendingQuery.verdict.isDone()) {
+				File dir;
+				try {
+					dir = this.workers.take();
+				} catch(InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new RuntimeException("Interrupted while waiting for a worker!", e);
+				}
+				List<PendingQuery> batch;
+				try {
+					batch = this.poll();
+					this.run(dir, batch);
+				} finally {
+					this.workers.add(dir);
+				}
+				if(batch.isEmpty()) {
+					// the query is being checked in the batch of another caller
+					break;
+				}
+			}
+			try {
+				return pendingQuery.verdict.get();
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException("Interrupted while waiting for query!", e);
+			} catch(ExecutionException e) {
+				throw new RuntimeException("Error executing query!", e.getCause());
+			}
+		}
+		
+		private List<PendingQuery> poll() {
+			synchronized(this.pending) {
+				List<PendingQuery> head = this.pending.subList(0, Math.min(this.batchSize, this.pending.size()));
+				List<PendingQuery> batch = new ArrayList<PendingQuery>(head);
+				head.clear();
+				return batch;
+			}
+		}
+		
+		// decides every query in the batch before returning
+		private void run(File dir, List<PendingQuery> batch) {
+			try {
+				while(batch.size() > 1) {
+					List<Boolean> verdicts = this.runBatch(dir, batch);
+					List<PendingQuery> undecided = new ArrayList<PendingQuery>();
+					for(int i=0; i<batch.size(); i++) {
+						if(verdicts == null || verdicts.get(i) == null) {
+							undecided.add(batch.get(i));
+						} else {
+							batch.get(i).verdict.complete(verdicts.get(i) ? Verdict.ACCEPT : Verdict.REJECT);
+						}
+					}
+					if(undecided.size() == batch.size()) {
+						break;
+					}
+					batch = undecided;
+				}
+				for(PendingQuery pendingQuery : batch) {
+					pendingQuery.verdict.complete(this.runSingle(dir, pendingQuery.query));
+				}
+			} catch(Throwable e) {
+				for(PendingQuery pendingQuery : batch) {
+					pendingQuery.verdict.completeExceptionally(e);
+				}
+				throw e;
+			}
+		}
+		
+		private List<Boolean> runBatch(File dir, List<PendingQuery> batch) {
+			String auxFilename = new File(dir, this.auxFilename).getPath();
+			List<String> filenames = new ArrayList<String>();
+			for(int i=0; i<batch.size(); i++) {
+				// one directory per query, so no filename is contained in another
+				File queryDir = new File(dir, "q" + i);
+				queryDir.mkdir();
+				filenames.add(new File(queryDir, this.filename).getPath());
+				write(batch.get(i).query, filenames.get(i));
+			}
+			write("", auxFilename);
+			try {
+				String command = this.factory.getBatchCommand(filenames, auxFilename, this.exePath);
+				Process process = executeNoWait(command);
+				String output = waitForStream(process, command, this.isError, this.timeoutMillis == -1 ? -1 : this.timeoutMillis * batch.size());
+				return this.parser.getVerdicts(output, process.waitFor(), filenames);
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException("Interrupted while executing batch!", e);
+			} finally {
+				for(String filename : filenames) {
+					delete(filename);
+				}
+				delete(auxFilename);
+			}
+		}
+		
+		private Verdict runSingle(File dir, Query query) {
+			String filename = new File(dir, this.filename).getPath();
+			String auxFilename = new File(dir, this.auxFilename).getPath();
+			write(query, filename);
+			write("", auxFilename);
+			try {
+				String command = this.factory.getCommand(filename, auxFilename, this.exePath);
+				return ProcessSupervisor.superviseVerdict(executeNoWait(command), command, this.isError, this.timeoutMillis);
+			} finally {
+				delete(filename);
+				delete(auxFilename);
+			}
 		}
 	}
 	
-	public static class ExecuteDiscriminativeOracle implements DiscriminativeOracle {
+	// Decides validity from the exit code alone; the output of the target is never read.
+	public static class ExitCodeOracle extends ScratchOracle {
+		private final Set<Integer> acceptedExitCodes;
+		
+		public ExitCodeOracle(String filename, String auxFilename, String command, Collection<Integer> acceptedExitCodes, long timeoutMillis, AdaptiveTimeout adaptiveTimeout) {
+			super(filename, auxFilename, command, Delivery.FILE, timeoutMillis, adaptiveTimeout);
+			this.acceptedExitCodes = new HashSet<Integer>(acceptedExitCodes);
+		}
+		
+		public ExitCodeOracle(String filename, String auxFilename, String command, Collection<Integer> acceptedExitCodes, long timeoutMillis) {
+			this(filename, auxFilename, command, acceptedExitCodes, timeoutMillis, null);
+		}
+		
+		@Override
+		protected Verdict getVerdict(Query query, long timeoutMillis) {
+			Integer exitCode;
+			try {
+				exitCode = ProcessSupervisor.superviseExit(this.start(query, true), this.command, timeoutMillis);
+			} finally {
+				this.finish();
+			}
+			if(exitCode == null) {
+				return Verdict.TIMEOUT;
+			}
+			return this.acceptedExitCodes.contains(exitCode) ? Verdict.ACCEPT : Verdict.REJECT;
+		}
+		
+		@Override
+		public String execute(String query) {
+			switch(this.getVerdict(Query.of(query))) {
+			case ACCEPT:
+				return "";
+			case REJECT:
+				return "Rejected by exit code!";
+			case TIMEOUT:
+				return "Timeout!";
+			default:
+				throw new RuntimeException("Invalid verdict!");
+			}
+		}
+	}
+	
+	public static class PooledExitCodeOracle extends PooledOracle {
+		public PooledExitCodeOracle(CommandFactory factory, String exePath, String filename, String auxFilename, Collection<Integer> acceptedExitCodes, long timeoutMillis, String scratchPath, int numWorkers, AdaptiveTimeout adaptiveTimeout) {
+			super(getWorkers(factory, exePath, filename, auxFilename, acceptedExitCodes, timeoutMillis, scratchPath, numWorkers, adaptiveTimeout));
+		}
+		
+		public PooledExitCodeOracle(CommandFactory factory, String exePath, String filename, String auxFilename, Collection<Integer> acceptedExitCodes, long timeoutMillis, String scratchPath, int numWorkers) {
+			this(factory, exePath, filename, auxFilename, acceptedExitCodes, timeoutMillis, scratchPath, numWorkers, null);
+		}
+		
+		private static List<ExitCodeOracle> getWorkers(CommandFactory factory, String exePath, String filename, String auxFilename, Collection<Integer> acceptedExitCodes, long timeoutMillis, String scratchPath, int numWorkers, AdaptiveTimeout adaptiveTimeout) {
+			List<ExitCodeOracle> workers = new ArrayList<ExitCodeOracle>();
+			for(int i=0; i<numWorkers; i++) {
+				File dir = createScratchDirectory(scratchPath);
+				String workerFilename = new File(dir, filename).getPath();
+				String workerAuxFilename = new File(dir, auxFilename).getPath();
+				workers.add(new ExitCodeOracle(workerFilename, workerAuxFilename, factory.getCommand(workerFilename, workerAuxFilename, exePath), acceptedExitCodes, timeoutMillis, adaptiveTimeout));
+			}
+			return workers;
+		}
+	}
+	
+	// Starts processes for the target ahead of time, each blocked reading its input from a pipe
+	// (the command gets /dev/stdin as its filename), so that a query is handed to a process that
+	// has already been forked, executed and dynamically linked. The auxiliary file stays empty.
+	public static class SpawnAheadOracle implements VerdictOracle {
+		public static final String STDIN_FILENAME = "/dev/stdin";
+		
+		private final String command;
+		private final boolean isError;
+		private final long timeoutMillis;
+		private final BlockingQueue<Process> processes;
+		private final ExecutorService spawner = Executors.newSingleThreadExecutor(OracleUtils.getDaemonThreadFactory("glade-spawner"));
+		private volatile boolean isClosed = false;
+		
+		public SpawnAheadOracle(CommandFactory factory, String exePath, String auxFilename, boolean isError, long timeoutMillis, String scratchPath, int depth) {
+			File aux = new File(createScratchDirectory(scratchPath), auxFilename);
+			write("", aux);
+			aux.deleteOnExit();
+			this.command = factory.getCommand(STDIN_FILENAME, aux.getPath(), exePath);
+			this.isError = isError;
+			this.timeoutMillis = timeoutMillis;
+			this.processes = new ArrayBlockingQueue<Process>(depth);
+			for(int i=0; i<depth; i++) {
+				this.spawn();
+			}
+			// the processes spawned ahead would otherwise outlive the JVM
+			Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+				@Override
+				public void run() {
+					close();
+				}
+			}));
+		}
+		
+		private void spawn() {
+			if(this.isClosed) {
+				return;
+			}
+			try {
+				this.spawner.execute(new Runnable() {
+					@Override
+					public void run() {
+						Process process = executeNoWait(command);
+						if(isClosed || !processes.offer(process)) {
+							ProcessSupervisor.destroyTree(process);
+						}
+					}
+				});
+			} catch(RejectedExecutionException e) {
+				// closed in the meantime
+			}
+		}
+		
+		// Stops spawning ahead, and kills the processes waiting for a query. Queries can still be
+		// run afterwards, each in a process started for it.
+		public void close() {
+			this.isClosed = true;
+			this.spawner.shutdownNow();
+			try {
+				this.spawner.awaitTermination(1, TimeUnit.SECONDS);
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			Process process;
+			while((process = this.processes.poll()) != null) {
+				ProcessSupervisor.destroyTree(process);
+			}
+		}
+		
+		private Process getProcess(Query query) {
+			Process process = this.processes.poll();
+			this.spawn();
+			if(process == null || !process.isAlive()) {
+				process = executeNoWait(this.command);
+			}
+			ProcessSupervisor.feed(process, query);
+			return process;
+		}
+		
+		@Override
+		public String execute(String query) {
+			return waitForStream(this.getProcess(Query.of(query)), this.command, this.isError, this.timeoutMillis);
+		}
+		
+		@Override
+		public boolean isBlank(String query) {
+			return this.isBlank(Query.of(query));
+		}
+		
+		@Override
+		public boolean isBlank(Query query) {
+			return this.getVerdict(query) == Verdict.ACCEPT;
+		}
+		
+		@Override
+		public Verdict getVerdict(Query query) {
+			return ProcessSupervisor.superviseVerdict(this.getProcess(query), this.command, this.isError, this.timeoutMillis);
+		}
+	}
+	
+	// Keeps a harness for the target running, and exchanges queries and outputs with it over
+	// stdin and stdout. Each query is sent as a delta against the previous one: the length of
+	// the common prefix, the length of the common suffix, and the length and UTF-8 bytes of the
+	// new middle (all lengths 32 bit big endian), from which the harness rebuilds the query in
+	// place; the first query after a (re)start has nothing in common with the previous one.
+	// Outputs are sent back length prefixed. On startup, the harness must send the output
+	// "ready" within the startup timeout. The harness is restarted after it crashes or hangs;
+	// an empty output means the query is valid, and one ending in the line "Timeout!" means
+	// the harness gave up on it.
+	public static class HarnessOracle implements VerdictOracle {
+		private static final String HANDSHAKE = "ready";
+		private static final String TIMEOUT_LINE = "Timeout!\n";
+		// the number of failed starts or crashed queries in a row before giving up on the harness
+		private static final int MAX_FAILURES = 3;
+		
+		private final String command;
+		private final long timeoutMillis;
+		private final long startupTimeoutMillis;
+		private final ExecutorService reader = Executors.newSingleThreadExecutor(OracleUtils.getDaemonThreadFactory("glade-harness"));
+		private Process process = null;
+		private DataOutputStream toHarness;
+		private DataInputStream fromHarness;
+		private byte[] previous = new byte[0];
+		private int numCrashes = 0;
+		
+		public HarnessOracle(String command, long timeoutMillis, long startupTimeoutMillis) {
+			this.command = command;
+			this.timeoutMillis = timeoutMillis;
+			this.startupTimeoutMillis = startupTimeoutMillis;
+		}
+		
+		private void start() throws InterruptedException {
+			for(int i=0; i<MAX_FAILURES; i++) {
+				try {
+					ProcessBuilder builder = new ProcessBuilder("/bin/sh", "-c", "exec " + this.command);
+					builder.redirectError(new File("/dev/null"));
+					this.process = builder.start();
+					this.toHarness = new DataOutputStream(new BufferedOutputStream(this.process.getOutputStream()));
+					this.fromHarness = new DataInputStream(new BufferedInputStream(this.process.getInputStream()));
+					this.previous = new byte[0];
+				} catch(IOException e) {
+					throw new RuntimeException("Error starting harness: " + this.command, e);
+				}
+				try {
+					if(HANDSHAKE.equals(this.receive(this.startupTimeoutMillis))) {
+						return;
+					}
+				} catch(TimeoutException | IOException | ExecutionException e) {}
+				this.stop();
+			}
+			throw new RuntimeException("Error starting harness, no handshake after " + MAX_FAILURES + " attempts: " + this.command);
+		}
+		
+		private void stop() {
+			if(this.process != null) {
+				ProcessSupervisor.destroyTree(this.process);
+				this.process = null;
+			}
+		}
+		
+		private void send(byte[] bytes) throws IOException {
+			int maxLength = Math.min(bytes.length, this.previous.length);
+			int prefix = Arrays.mismatch(bytes, 0, maxLength, this.previous, 0, maxLength);
+			if(prefix == -1) {
+				prefix = maxLength;
+			}
+			int suffix = 0;
+			while(suffix < maxLength - prefix && bytes[bytes.length - suffix - 1] == this.previous[this.previous.length - suffix - 1]) {
+				suffix++;
+			}
+			this.toHarness.writeInt(prefix);
+			this.toHarness.writeInt(suffix);
+			this.toHarness.writeInt(bytes.length - prefix - suffix);
+			this.toHarness.write(bytes, prefix, bytes.length - prefix - suffix);
+			this.toHarness.flush();
+			this.previous = bytes;
+		}
+		
+		private String receive(long timeoutMillis) throws TimeoutException, IOException, ExecutionException, InterruptedException {
+			final DataInputStream fromHarness = this.fromHarness;
+			Future<byte[]> reply = this.reader.submit(new Callable<byte[]>() {
+				@Override
+				public byte[] call() throws IOException {
+					byte[] output = new byte[fromHarness.readInt()];
+					fromHarness.readFully(output);
+					return output;
+				}
+			});
+			byte[] output = timeoutMillis == -1 ? reply.get() : reply.get(timeoutMillis, TimeUnit.MILLISECONDS);
+			return new String(output, StandardCharsets.UTF_8);
+		}
+		
+		// the output is only written for an accepted or rejected query
+		private synchronized Verdict run(Query query, StringBuilder output) {
+			try {
+				if(this.process == null || !this.process.isAlive()) {
+					this.stop();
+					this.start();
+				}
+				this.send(query.toString().getBytes(StandardCharsets.UTF_8));
+				output.append(this.receive(this.timeoutMillis));
+				this.numCrashes = 0;
+				if(output.toString().endsWith(TIMEOUT_LINE)) {
+					return Verdict.TIMEOUT;
+				}
+				return output.toString().matches("\\s*") ? Verdict.ACCEPT : Verdict.REJECT;
+			} catch(TimeoutException e) {
+				this.stop();
+				return Verdict.TIMEOUT;
+			} catch(InterruptedException e) {
+				this.stop();
+				Thread.currentThread().interrupt();
+				throw new RuntimeException("Interrupted while executing harness: " + this.command, e);
+			} catch(IOException | ExecutionException e) {
+				// the query may be to blame, but a harness that keeps crashing is broken
+				this.stop();
+				if(++this.numCrashes >= MAX_FAILURES) {
+					throw new RuntimeException("Error running harness, crashed on " + this.numCrashes + " queries in a row: " + this.command, e);
+				}
+				return Verdict.ERROR;
+			}
+		}
+		
+		@Override
+		public String execute(String query) {
+			return this.execute(Query.of(query));
+		}
+		
+		@Override
+		public boolean isBlank(String query) {
+			return this.isBlank(Query.of(query));
+		}
+		
+		@Override
+		public boolean isBlank(Query query) {
+			return this.getVerdict(query) == Verdict.ACCEPT;
+		}
+		
+		@Override
+		public Verdict getVerdict(Query query) {
+			return this.run(query, new StringBuilder());
+		}
+		
+		public String execute(Query query) {
+			StringBuilder output = new StringBuilder();
+			switch(this.run(query, output)) {
+			case TIMEOUT:
+				return output.length() == 0 ? "Timeout!" : output.toString();
+			case ERROR:
+				return "Harness crashed!";
+			default:
+				return output.toString();
+			}
+		}
+	}
+	
+	// passes on the verdicts of the oracle, so that only definite ones are cached and stored
+	public static class ExecuteDiscriminativeOracle implements VerdictDiscriminativeOracle {
 		private final Oracle oracle;
+		private final AtomicLong timeouts = new AtomicLong();
+		private final AtomicLong errors = new AtomicLong();
 		
 		public ExecuteDiscriminativeOracle(Oracle oracle) {
 			this.oracle = oracle;
@@ -156,7 +1199,37 @@ public class ShellUtils {
 
 		@Override
 		public boolean query(String query) {
-			return this.oracle.execute(query).matches("\\s*");
+			return this.query(Query.of(query));
+		}
+		
+		@Override
+		public boolean query(Query query) {
+			return this.queryVerdict(query) == Verdict.ACCEPT;
+		}
+		
+		@Override
+		public Verdict queryVerdict(Query query) {
+			Verdict verdict = OracleUtils.getVerdict(this.oracle, query);
+			if(verdict == Verdict.TIMEOUT) {
+				this.timeouts.incrementAndGet();
+			} else if(verdict == Verdict.ERROR) {
+				this.errors.incrementAndGet();
+			}
+			return verdict;
+		}
+		
+		// the number of queries that were rejected without a definite verdict
+		public long getTimeouts() {
+			return this.timeouts.get();
+		}
+		
+		public long getErrors() {
+			return this.errors.get();
+		}
+		
+		@Override
+		public String toString() {
+			return "timeouts: " + this.getTimeouts() + ", errors: " + this.getErrors();
 		}
 	}
 }
@@ -0,0 +1,303 @@
+// Copyright 2015-2016 Stanford University
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package glade.util;
+
+import glade.util.OracleUtils.DiscriminativeOracle;
+import glade.util.OracleUtils.Fingerprint;
+import glade.util.OracleUtils.Query;
+import glade.util.OracleUtils.Verdict;
+import glade.util.OracleUtils.VerdictDiscriminativeOracle;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+public class StoreUtils {
+	// Open addressing hash table of verdicts in a memory mapped file. Each slot holds the
+	// two halves of a query fingerprint, where the two low bits of the second half are
+	// replaced by an occupied bit and the verdict. A slot is never changed once it is written,
+	// but the store is not append only: growing it rehashes every slot into a new file, which
+	// then replaces the old one. Puts are not forced to disk, so the verdicts written since the
+	// last grow may be lost (or, in a slot written back only in part, corrupted) if the machine
+	// crashes; a crash of the process itself loses nothing.
+	public static class VerdictStore {
+		private static final long MAGIC = 0x474c414445564452L;
+		private static final int VERSION = 1;
+		private static final int HEADER_BYTES = 64;
+		private static final int SLOT_BYTES = 16;
+		private static final long CHUNK_BYTES = 1L << 30;
+		private static final long INITIAL_CAPACITY = 1L << 16;
+		private static final double MAX_LOAD = 0.7;
+		
+		private static final long OCCUPIED = 2L;
+		private static final long ACCEPT = 1L;
+		
+		private static final Map<String,VerdictStore> stores = new HashMap<String,VerdictStore>();
+		
+		// one store per file, so that all oracles for a program in this process share the lock on it
+		public static synchronized VerdictStore getStore(String path, String name) {
+			String filename = new File(path, name + ".verdicts").getAbsolutePath();
+			VerdictStore store = stores.get(filename);
+			if(store == null) {
+				store = new VerdictStore(new File(filename));
+				stores.put(filename, store);
+			}
+			return store;
+		}
+		
+		private final File file;
+		private final ReadWriteLock lock = new ReentrantReadWriteLock();
+		private RandomAccessFile raf;
+		private FileLock fileLock;
+		private MappedByteBuffer header;
+		private MappedByteBuffer[] chunks;
+		private long capacity;
+		private long count;
+		
+		private VerdictStore(File file) {
+			this.file = file;
+			try {
+				File parent = file.getParentFile();
+				if(parent != null) {
+					parent.mkdirs();
+				}
+				this.open();
+			} catch(IOException e) {
+				throw new RuntimeException("Error opening verdict store: " + file, e);
+			}
+		}
+		
+		private void open() throws IOException {
+			this.raf = new RandomAccessFile(this.file, "rw");
+			this.fileLock = this.raf.getChannel().tryLock();
+			if(this.fileLock == null) {
+				this.raf.close();
+				throw new IOException("Verdict store in use by another process: " + this.file);
+			}
+			if(this.raf.length() < HEADER_BYTES) {
+				this.map(this.raf, INITIAL_CAPACITY);
+				this.initHeader(INITIAL_CAPACITY);
+			} else {
+				this.header = this.raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES);
+				if(this.header.getLong(0) != MAGIC || this.header.getInt(8) != VERSION) {
+					throw new IOException("Invalid verdict store: " + this.file);
+				}
+				this.map(this.raf, this.header.getLong(16));
+			}
+			this.capacity = this.header.getLong(16);
+			this.count = this.header.getLong(24);
+		}
+		
+		private void map(RandomAccessFile raf, long capacity) throws IOException {
+			long bytes = capacity * SLOT_BYTES;
+			raf.setLength(HEADER_BYTES + bytes);
+			this.header = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES);
+			this.chunks = new MappedByteBuffer[(int)((bytes + CHUNK_BYTES - 1) / CHUNK_BYTES)];
+			for(int i=0; i<this.chunks.length; i++) {
+				long offset = i * CHUNK_BYTES;
+				this.chunks[i] = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, HEADER_BYTES + offset, Math.min(CHUNK_BYTES, bytes - offset));
+			}
+		}
+		
+		private void initHeader(long capacity) {
+			this.header.putLong(0, MAGIC);
+			this.header.putInt(8, VERSION);
+			this.header.putLong(16, capacity);
+			this.header.putLong(24, 0);
+		}
+		
+		private long getHi(long slot) {
+			long offset = slot * SLOT_BYTES;
+			return this.chunks[(int)(offset / CHUNK_BYTES)].getLong((int)(offset % CHUNK_BYTES));
+		}
+		
+		private long getLo(long slot) {
+			long offset = slot * SLOT_BYTES + 8;
+			return this.chunks[(int)(offset / CHUNK_BYTES)].getLong((int)(offset % CHUNK_BYTES));
+		}
+		
+		private void putSlot(long slot, long hi, long lo) {
+			long offset = slot * SLOT_BYTES;
+			MappedByteBuffer chunk = this.chunks[(int)(offset / CHUNK_BYTES)];
+			chunk.putLong((int)(offset % CHUNK_BYTES), hi);
+			chunk.putLong((int)(offset % CHUNK_BYTES) + 8, lo);
+		}
+		
+		private long getStart(long hi, long lo) {
+			return (hi ^ (lo >>> 17)) & (this.capacity - 1);
+		}
+		
+		private static long getKey(Fingerprint fingerprint) {
+			return (fingerprint.lo & ~(OCCUPIED | ACCEPT)) | OCCUPIED;
+		}
+		
+		// returns the slot holding the key, or the empty slot where it belongs
+		private long find(long hi, long key) {
+			long slot = this.getStart(hi, key);
+			while(true) {
+				long lo = this.getLo(slot);
+				if(lo == 0 || (this.getHi(slot) == hi && (lo & ~ACCEPT) == key)) {
+					return slot;
+				}
+				slot = (slot + 1) & (this.capacity - 1);
+			}
+		}
+		
+		public Boolean get(Fingerprint fingerprint) {
+			this.lock.readLock().lock();
+			try {
+				long lo = this.getLo(this.find(fingerprint.hi, getKey(fingerprint)));
+				return lo == 0 ? null : (lo & ACCEPT) != 0;
+			} finally {
+				this.lock.readLock().unlock();
+			}
+		}
+		
+		public void put(Fingerprint fingerprint, boolean verdict) {
+			this.lock.writeLock().lock();
+			try {
+				long key = getKey(fingerprint);
+				long slot = this.find(fingerprint.hi, key);
+				if(this.getLo(slot) != 0) {
+					return;
+				}
+				this.putSlot(slot, fingerprint.hi, verdict ? key | ACCEPT : key);
+				this.count++;
+				this.header.putLong(24, this.count);
+				if(this.count > this.capacity * MAX_LOAD) {
+					this.grow();
+				}
+			} catch(IOException e) {
+				throw new RuntimeException("Error growing verdict store: " + this.file, e);
+			} finally {
+				this.lock.writeLock().unlock();
+			}
+		}
+		
+		// releases the file, so that the next store for it reads it again from disk
+		public void close() {
+			synchronized(VerdictStore.class) {
+				stores.remove(this.file.getPath());
+			}
+			this.lock.writeLock().lock();
+			try {
+				this.fileLock.release();
+				this.raf.close();
+			} catch(IOException e) {
+				throw new RuntimeException("Error closing verdict store: " + this.file, e);
+			} finally {
+				this.lock.writeLock().unlock();
+			}
+		}
+		
+		public long size() {
+			this.lock.readLock().lock();
+			try {
+				return this.count;
+			} finally {
+				this.lock.readLock().unlock();
+			}
+		}
+		
+		// Rehashes into a table of twice the size, which then replaces the old file. The old file
+		// stays locked until the new one has replaced it, so no other process can open it between.
+		private void grow() throws IOException {
+			File tmp = new File(this.file.getPath() + ".tmp");
+			tmp.delete();
+			MappedByteBuffer[] oldChunks = this.chunks;
+			long oldCapacity = this.capacity;
+			RandomAccessFile oldRaf = this.raf;
+			FileLock oldFileLock = this.fileLock;
+			
+			this.raf = new RandomAccessFile(tmp, "rw");
+			this.fileLock = this.raf.getChannel().lock();
+			this.map(this.raf, 2 * oldCapacity);
+			this.initHeader(2 * oldCapacity);
+			this.capacity = 2 * oldCapacity;
+			
+			MappedByteBuffer[] newChunks = this.chunks;
+			for(long slot=0; slot<oldCapacity; slot++) {
+				this.chunks = oldChunks;
+				long hi = this.getHi(slot);
+				long lo = this.getLo(slot);
+				this.chunks = newChunks;
+				if(lo != 0) {
+					this.putSlot(this.find(hi, lo & ~ACCEPT), hi, lo);
+				}
+			}
+			this.header.putLong(24, this.count);
+			for(MappedByteBuffer chunk : this.chunks) {
+				chunk.force();
+			}
+			this.header.force();
+			
+			try {
+				if(!tmp.renameTo(this.file)) {
+					throw new IOException("Error replacing verdict store: " + this.file);
+				}
+			} finally {
+				oldFileLock.release();
+				oldRaf.close();
+			}
+		}
+	}
+	
+	// only definite verdicts are stored, so timeouts and failures of the oracle are never replayed
+	public static class StoredDiscriminativeOracle implements VerdictDiscriminativeOracle {
+		private final DiscriminativeOracle oracle;
+		private final VerdictStore store;
+		
+		public StoredDiscriminativeOracle(DiscriminativeOracle oracle, VerdictStore store) {
+			this.oracle = oracle;
+			this.store = store;
+		}
+		
+		@Override
+		public boolean query(String query) {
+			return this.query(Query.of(query));
+		}
+		
+		@Override
+		public boolean query(Query query) {
+			return this.queryVerdict(query) == Verdict.ACCEPT;
+		}
+		
+		@Override
+		public Verdict queryVerdict(Query query) {
+			Fingerprint fingerprint = query.getFingerprint();
+			Boolean result = this.store.get(fingerprint);
+			if(result != null) {
+				return result ? Verdict.ACCEPT : Verdict.REJECT;
+			}
+			Verdict verdict = OracleUtils.queryVerdict(this.oracle, query);
+			if(verdict.isDefinite()) {
+				this.store.put(fingerprint, verdict == Verdict.ACCEPT);
+			}
+			return verdict;
+		}
+		
+		@Override
+		public String toString() {
+			return "stored verdicts: " + this.store.size() + ", " + this.oracle;
+		}
+	}
+}
@@ -15,6 +15,8 @@
 package glade.util;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -61,6 +63,133 @@ public class Utils {
 		}
 	}
 	
+	// Computes a value for each node of a tree from the values of its children, using a stack
+	// on the heap instead of recursion, so deep trees do not overflow the call stack. Nodes
+	// are visited in the same order as by the recursive post-order traversal.
+	public static abstract class TreeFold<N,V> {
+		protected abstract List<N> getChildren(N node);
+		protected abstract V getValue(N node, List<V> children);
+		
+		private class Frame {
+			private final N node;
+			private final List<N> children;
+			private final List<V> values = new ArrayList<V>();
+			private Frame(N node) {
+				this.node = node;
+				this.children = getChildren(node);
+			}
+		}
+		
+		public V fold(N root) {
+			List<Frame> stack = new ArrayList<Frame>();
+			stack.add(new Frame(root));
+			while(true) {
+				Frame frame = stack.get(stack.size()-1);
+				if(frame.values.size() < frame.children.size()) {
+					stack.add(new Frame(frame.children.get(frame.values.size())));
+					continue;
+				}
+				stack.remove(stack.size()-1);
+				V value = this.getValue(frame.node, frame.values);
+				if(stack.isEmpty()) {
+					return value;
+				}
+				stack.get(stack.size()-1).values.add(value);
+			}
+		}
+	}
+	
+	// The suffix array of a string, with the longest common prefixes of neighbouring suffixes
+	// and a sparse table over them, so the common prefix of any two suffixes takes constant time.
+	public static class SuffixArray {
+		private final int length;
+		private final int[] rank;
+		// lcps[k][r] is the smallest common prefix of neighbours in the sorted suffixes r to r+2^k
+		private final int[][] lcps;
+		
+		public SuffixArray(String string) {
+			this.length = string.length();
+			this.rank = new int[this.length];
+			Integer[] suffixes = new Integer[this.length];
+			for(int i=0; i<this.length; i++) {
+				suffixes[i] = i;
+				this.rank[i] = string.charAt(i);
+			}
+			// sorts the suffixes by their first 2k characters, doubling k until all ranks differ
+			int[] next = new int[this.length];
+			for(int k=1; ; k*=2) {
+				final int curK = k;
+				final int[] curRank = this.rank;
+				Comparator<Integer> comparator = new Comparator<Integer>() {
+					@Override
+					public int compare(Integer first, Integer second) {
+						if(curRank[first] != curRank[second]) {
+							return curRank[first] < curRank[second] ? -1 : 1;
+						}
+						int firstNext = first+curK < curRank.length ? curRank[first+curK] : -1;
+						int secondNext = second+curK < curRank.length ? curRank[second+curK] : -1;
+						return firstNext < secondNext ? -1 : firstNext == secondNext ? 0 : 1;
+					}
+				};
+				Arrays.sort(suffixes, comparator);
+				for(int r=0; r<this.length; r++) {
+					next[suffixes[r]] = r == 0 ? 0 : next[suffixes[r-1]] + (comparator.compare(suffixes[r-1], suffixes[r]) < 0 ? 1 : 0);
+				}
+				System.arraycopy(next, 0, this.rank, 0, this.length);
+				if(this.length == 0 || this.rank[suffixes[this.length-1]] == this.length-1) {
+					break;
+				}
+			}
+			// the common prefixes of neighbouring suffixes (Kasai et al.)
+			int[] lcp = new int[Math.max(this.length-1, 0)];
+			for(int i=0, h=0; i<this.length; i++) {
+				if(this.rank[i] == this.length-1) {
+					h = 0;
+					continue;
+				}
+				int j = suffixes[this.rank[i]+1];
+				while(i+h < this.length && j+h < this.length && string.charAt(i+h) == string.charAt(j+h)) {
+					h++;
+				}
+				lcp[this.rank[i]] = h;
+				if(h > 0) {
+					h--;
+				}
+			}
+			int levels = 1;
+			while((1 << levels) <= lcp.length) {
+				levels++;
+			}
+			this.lcps = new int[levels][];
+			this.lcps[0] = lcp;
+			for(int k=1; k<levels; k++) {
+				this.lcps[k] = new int[lcp.length - (1 << k) + 1];
+				for(int r=0; r<this.lcps[k].length; r++) {
+					this.lcps[k][r] = Math.min(this.lcps[k-1][r], this.lcps[k-1][r + (1 << (k-1))]);
+				}
+			}
+		}
+		
+		// the length of the common prefix of the suffixes starting at i and j
+		public int getLcp(int i, int j) {
+			if(i == j) {
+				return this.length - i;
+			}
+			int lo = Math.min(this.rank[i], this.rank[j]);
+			int hi = Math.max(this.rank[i], this.rank[j]);
+			int k = 31 - Integer.numberOfLeadingZeros(hi - lo);
+			return Math.min(this.lcps[k][lo], this.lcps[k][hi - (1 << k)]);
+		}
+		
+		// the length of the longest prefix of the suffix starting at i that also starts elsewhere
+		public int getMaxRepeatLength(int i) {
+			int r = this.rank[i];
+			int left = r > 0 ? this.lcps[0][r-1] : 0;
+			int right = r < this.length-1 ? this.lcps[0][r] : 0;
+			return Math.max(left, right);
+		}
+	}
+	
 	public static class Maybe<T> {
 		private T t;
 		public Maybe(T t) {
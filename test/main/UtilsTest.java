@@ -0,0 +1,139 @@
+// Copyright 2015-2016 Stanford University
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package main;
+
+import glade.util.OracleUtils.DiscriminativeOracle;
+import glade.util.OracleUtils.Fingerprint;
+import glade.util.OracleUtils.Query;
+import glade.util.OracleUtils.Verdict;
+import glade.util.OracleUtils.VerdictDiscriminativeOracle;
+import glade.util.StoreUtils.StoredDiscriminativeOracle;
+import glade.util.StoreUtils.VerdictStore;
+import glade.util.Utils.SuffixArray;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+
+// checks the data structures of GLADE against simple reference implementations
+public class UtilsTest {
+	private static void check(boolean condition, String message) {
+		if(!condition) {
+			throw new RuntimeException("Check failed: " + message);
+		}
+	}
+	
+	// the length of the longest common prefix of the suffixes at i and j
+	private static int getLcp(String string, int i, int j) {
+		int lcp = 0;
+		while(i+lcp < string.length() && j+lcp < string.length() && string.charAt(i+lcp) == string.charAt(j+lcp)) {
+			lcp++;
+		}
+		return lcp;
+	}
+	
+	// compares the suffix array with a brute force search, on random strings over small alphabets
+	public static void testSuffixArray(Random random) {
+		for(int t=0; t<2000; t++) {
+			StringBuilder sb = new StringBuilder();
+			int length = random.nextInt(40);
+			for(int i=0; i<length; i++) {
+				sb.append((char)('a' + random.nextInt(1 + t % 4)));
+			}
+			String string = sb.toString();
+			SuffixArray suffixArray = new SuffixArray(string);
+			for(int i=0; i<length; i++) {
+				int maxRepeatLength = 0;
+				for(int j=0; j<length; j++) {
+					int lcp = getLcp(string, i, j);
+					check(suffixArray.getLcp(i, j) == lcp, "lcp of " + i + " and " + j + " in " + string);
+					if(i != j) {
+						maxRepeatLength = Math.max(maxRepeatLength, lcp);
+					}
+				}
+				check(suffixArray.getMaxRepeatLength(i) == maxRepeatLength, "max repeat length of " + i + " in " + string);
+			}
+		}
+	}
+	
+	private static boolean getVerdict(int i) {
+		return i % 3 == 0;
+	}
+	
+	// fills a store past two grows, and checks every verdict before and after reopening it
+	public static void testVerdictStore(File dir) {
+		int numVerdicts = 100000;
+		VerdictStore store = VerdictStore.getStore(dir.getPath(), "test");
+		for(int i=0; i<numVerdicts; i++) {
+			store.put(Fingerprint.of("query" + i), getVerdict(i));
+		}
+		// verdicts are never changed once stored
+		store.put(Fingerprint.of("query0"), !getVerdict(0));
+		for(int pass=0; pass<2; pass++) {
+			check(store.size() == numVerdicts, "store size " + store.size());
+			for(int i=0; i<numVerdicts; i++) {
+				Boolean verdict = store.get(Fingerprint.of("query" + i));
+				check(verdict != null && verdict == getVerdict(i), "verdict of query" + i);
+				check(store.get(Fingerprint.of("other" + i)) == null, "absent query other" + i);
+			}
+			store.close();
+			store = VerdictStore.getStore(dir.getPath(), "test");
+		}
+		check(!new File(dir, "test.verdicts.tmp").exists(), "temporary store removed");
+		store.close();
+	}
+	
+	// a timeout is passed on but not stored, so the query is run again
+	public static void testStoredOracle(File dir) {
+		final int[] numQueries = new int[]{0};
+		DiscriminativeOracle oracle = new VerdictDiscriminativeOracle() {
+			@Override
+			public boolean query(String query) {
+				return this.query(Query.of(query));
+			}
+			@Override
+			public boolean query(Query query) {
+				return this.queryVerdict(query) == Verdict.ACCEPT;
+			}
+			@Override
+			public Verdict queryVerdict(Query query) {
+				return numQueries[0]++ == 0 ? Verdict.TIMEOUT : Verdict.ACCEPT;
+			}
+		};
+		VerdictStore store = VerdictStore.getStore(dir.getPath(), "stored");
+		StoredDiscriminativeOracle stored = new StoredDiscriminativeOracle(oracle, store);
+		check(!stored.query("a"), "timeout is not accepted");
+		check(store.size() == 0, "timeout is not stored");
+		check(stored.query("a") && stored.query("a"), "query accepted once run again");
+		check(numQueries[0] == 2 && store.size() == 1, "accepted query stored");
+		store.close();
+	}
+	
+	public static void main(String[] args) throws IOException {
+		testSuffixArray(new Random(0));
+		File dir = Files.createTempDirectory("glade-test").toFile();
+		try {
+			testVerdictStore(dir);
+			testStoredOracle(dir);
+		} finally {
+			for(File file : dir.listFiles()) {
+				file.delete();
+			}
+			dir.delete();
+		}
+		System.out.println("ALL CHECKS PASSED");
+	}
+}